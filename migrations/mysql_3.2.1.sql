@@ -0,0 +1,20 @@
+CREATE INDEX `CACHE_LAST_ACCESS_TIME` ON `CACHE` (`LAST_ACCESS_TIME`);
+ALTER TABLE `CACHE` ADD `LONG_VALUE` BIGINT DEFAULT NULL;
+ALTER TABLE `CART` ADD `TOTAL_SIZE` BIGINT DEFAULT NULL;
+ALTER TABLE `CART` ADD `TOTAL_COUNT` BIGINT DEFAULT NULL;
+ALTER TABLE `CARTITEM` ADD `FILE_SIZE` BIGINT DEFAULT NULL;
+ALTER TABLE `CARTITEM` ADD `FILE_COUNT` BIGINT DEFAULT NULL;
+CREATE TABLE `TOPCAT_SEQUENCE` (`SEQ_NAME` VARCHAR(50) NOT NULL, `SEQ_COUNT` DECIMAL(38) DEFAULT NULL, PRIMARY KEY (`SEQ_NAME`));
+INSERT INTO `TOPCAT_SEQUENCE` (`SEQ_NAME`, `SEQ_COUNT`) SELECT 'CARTITEM', COALESCE(MAX(`ID`), 0) FROM `CARTITEM`;
+INSERT INTO `TOPCAT_SEQUENCE` (`SEQ_NAME`, `SEQ_COUNT`) SELECT 'PARENTENTITY', COALESCE(MAX(`ID`), 0) FROM `PARENTENTITY`;
+CREATE INDEX `CARTITEM_CART_ENTITY` ON `CARTITEM` (`CART_ID`, `ENTITY_TYPE`, `ENTITY_ID`);
+CREATE INDEX `PARENTENTITY_CARTITEM` ON `PARENTENTITY` (`CARTITEM_ID`);
+ALTER TABLE `CART` ADD `VERSION` BIGINT DEFAULT 0 NOT NULL;
+INSERT INTO `TOPCAT_SEQUENCE` (`SEQ_NAME`, `SEQ_COUNT`) SELECT 'DOWNLOAD', COALESCE(MAX(`ID`), 0) FROM `DOWNLOAD`;
+INSERT INTO `TOPCAT_SEQUENCE` (`SEQ_NAME`, `SEQ_COUNT`) SELECT 'DOWNLOADITEM', COALESCE(MAX(`ID`), 0) FROM `DOWNLOADITEM`;
+ALTER TABLE `DOWNLOAD` ADD `INVESTIGATION_IDS` LONGBLOB;
+ALTER TABLE `DOWNLOAD` ADD `DATASET_IDS` LONGBLOB;
+ALTER TABLE `DOWNLOAD` ADD `DATAFILE_IDS` LONGBLOB;
+CREATE INDEX `DOWNLOAD_USER_CREATED` ON `DOWNLOAD` (`USER_NAME`, `CREATED_AT`, `ID`);
+CREATE TABLE `CACHE_EPOCH` (`REGION` VARCHAR(255) NOT NULL, `EPOCH` BIGINT NOT NULL, PRIMARY KEY (`REGION`));
+INSERT INTO `CACHE_EPOCH` (`REGION`, `EPOCH`) VALUES ('session', 0), ('priority', 0), ('groupings', 0), ('negative', 0), ('cache', 0), ('idsCapabilities', 0);
@@ -0,0 +1,20 @@
+CREATE INDEX CACHE_LAST_ACCESS_TIME ON CACHE (LAST_ACCESS_TIME);
+ALTER TABLE CACHE ADD LONG_VALUE NUMBER(19, 0);
+ALTER TABLE CART ADD TOTAL_SIZE NUMBER(19, 0);
+ALTER TABLE CART ADD TOTAL_COUNT NUMBER(19, 0);
+ALTER TABLE CARTITEM ADD FILE_SIZE NUMBER(19, 0);
+ALTER TABLE CARTITEM ADD FILE_COUNT NUMBER(19, 0);
+CREATE TABLE TOPCAT_SEQUENCE (SEQ_NAME VARCHAR2(50) NOT NULL, SEQ_COUNT NUMBER(38), PRIMARY KEY (SEQ_NAME));
+INSERT INTO TOPCAT_SEQUENCE (SEQ_NAME, SEQ_COUNT) SELECT 'CARTITEM', COALESCE(MAX(ID), 0) FROM CARTITEM;
+INSERT INTO TOPCAT_SEQUENCE (SEQ_NAME, SEQ_COUNT) SELECT 'PARENTENTITY', COALESCE(MAX(ID), 0) FROM PARENTENTITY;
+CREATE INDEX CARTITEM_CART_ENTITY ON CARTITEM (CART_ID, ENTITY_TYPE, ENTITY_ID);
+CREATE INDEX PARENTENTITY_CARTITEM ON PARENTENTITY (CARTITEM_ID);
+ALTER TABLE CART ADD VERSION NUMBER(19, 0) DEFAULT 0 NOT NULL;
+INSERT INTO TOPCAT_SEQUENCE (SEQ_NAME, SEQ_COUNT) SELECT 'DOWNLOAD', COALESCE(MAX(ID), 0) FROM DOWNLOAD;
+INSERT INTO TOPCAT_SEQUENCE (SEQ_NAME, SEQ_COUNT) SELECT 'DOWNLOADITEM', COALESCE(MAX(ID), 0) FROM DOWNLOADITEM;
+ALTER TABLE DOWNLOAD ADD INVESTIGATION_IDS BLOB;
+ALTER TABLE DOWNLOAD ADD DATASET_IDS BLOB;
+ALTER TABLE DOWNLOAD ADD DATAFILE_IDS BLOB;
+CREATE INDEX DOWNLOAD_USER_CREATED ON DOWNLOAD (USER_NAME, CREATED_AT, ID);
+CREATE TABLE CACHE_EPOCH (REGION VARCHAR2(255) NOT NULL, EPOCH NUMBER(19, 0) NOT NULL, PRIMARY KEY (REGION));
+INSERT INTO CACHE_EPOCH (REGION, EPOCH) SELECT 'session', 0 FROM DUAL UNION ALL SELECT 'priority', 0 FROM DUAL UNION ALL SELECT 'groupings', 0 FROM DUAL UNION ALL SELECT 'negative', 0 FROM DUAL UNION ALL SELECT 'cache', 0 FROM DUAL UNION ALL SELECT 'idsCapabilities', 0 FROM DUAL;
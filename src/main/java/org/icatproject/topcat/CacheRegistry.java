@@ -0,0 +1,85 @@
+package org.icatproject.topcat;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the in-process caches, each identified by a region name, so that
+ * they can be cleared when another node signals that their contents are stale
+ * (see CacheEpochRepository). Each cache registers its region when it is first
+ * used, but the set of regions is fixed, so that a region can be invalidated
+ * across the cluster even if this node has not used that cache yet. The
+ * regions are:
+ * <ul>
+ * <li>session: identities of ICAT sessions (SessionCache)</li>
+ * <li>priority: queue priorities of users (PriorityMap)</li>
+ * <li>groupings: ICAT Grouping memberships of users (TransportMap)</li>
+ * <li>negative: not found and forbidden results (NegativeCache)</li>
+ * <li>cache: the in memory tier of CacheRepository</li>
+ * <li>idsCapabilities: whether each IDS is two level (IdsCapabilityCache)</li>
+ * </ul>
+ */
+public class CacheRegistry {
+
+	/**
+	 * Names of all the cache regions, whether or not they are registered yet.
+	 */
+	public static final Set<String> REGIONS = Collections.unmodifiableSet(new TreeSet<>(
+			Set.of("session", "priority", "groupings", "negative", "cache", "idsCapabilities")));
+
+	private static CacheRegistry instance = null;
+
+	public synchronized static CacheRegistry getInstance() {
+		if (instance == null) {
+			instance = new CacheRegistry();
+		}
+		return instance;
+	}
+
+	private Logger logger = LoggerFactory.getLogger(CacheRegistry.class);
+
+	private ConcurrentHashMap<String, Runnable> regions = new ConcurrentHashMap<>();
+
+	/**
+	 * @param region Name of the region, replacing any previous registration
+	 * @param clear  Callback which clears the cache
+	 */
+	public void register(String region, Runnable clear) {
+		regions.put(region, clear);
+	}
+
+	/**
+	 * @param region Name of a region
+	 * @return Whether the region is one of REGIONS
+	 */
+	public static boolean isRegion(String region) {
+		return REGIONS.contains(region);
+	}
+
+	/**
+	 * @return Names of the regions registered on this node
+	 */
+	public Set<String> getRegions() {
+		return new TreeSet<>(regions.keySet());
+	}
+
+	/**
+	 * @param region Name of the region to clear
+	 * @return Whether the region was registered, if not there is nothing cached
+	 *         on this node to clear
+	 */
+	public boolean invalidate(String region) {
+		Runnable clear = regions.get(region);
+		if (clear == null) {
+			return false;
+		}
+		logger.debug("Clearing cache region {}", region);
+		clear.run();
+		return true;
+	}
+}
@@ -0,0 +1,153 @@
+package org.icatproject.topcat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jakarta.ejb.EJB;
+import jakarta.ejb.Schedule;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+
+import org.icatproject.topcat.exceptions.TopcatException;
+import org.icatproject.topcat.repository.CacheRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Precomputes the sizes of Investigations and Datasets so that the first
+ * getSize request for them is served from the cache. For each facility with
+ * facility.&lt;name&gt;.sizeWarmer.enabled set, this will calculate the sizes of
+ * recently created Investigations and Datasets, and refresh the sizes of
+ * recently accessed Investigations once investigationSizeCacheLifetimeSeconds
+ * has passed. Sizes are calculated one at a time, up to a limit per run, to
+ * avoid putting excessive load on the IDS.
+ */
+@Singleton
+public class CacheWarmer {
+
+	private static final Logger logger = LoggerFactory.getLogger(CacheWarmer.class);
+
+	@EJB
+	private CacheRepository cacheRepository;
+
+	// Functional account sessions, reused between runs until they fail
+	private Map<String, String> sessionIds = new HashMap<String, String>();
+
+	// Number of recently created ids to fetch from ICAT at a time, while looking
+	// for ones which are not cached yet
+	private static final int CANDIDATE_PAGE_SIZE = 1000;
+
+	/**
+	 * Does not run in a transaction, so that each size is committed to the cache
+	 * as soon as it is calculated, however long the run takes.
+	 */
+	@Schedule(hour = "*", minute = "*/10")
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	private void warm() {
+		try {
+			for (String facilityName : FacilityMap.getInstance().getFacilities()) {
+				String propertyRoot = "facility." + facilityName + ".sizeWarmer.";
+				if (!Boolean.valueOf(Properties.getInstance().getProperty(propertyRoot + "enabled", "false"))) {
+					continue;
+				}
+				try {
+					String sessionId = IcatClient.getQueueSessionId(sessionIds, facilityName);
+					warmFacility(facilityName, sessionId, null);
+				} catch (Exception e) {
+					logger.error("Could not warm sizes for {}: {}", facilityName, e.getMessage());
+					// The session may have expired, so login again on the next run
+					sessionIds.remove(facilityName);
+				}
+			}
+		} catch (RuntimeException | TopcatException e) {
+			// Catch exceptions to prevent the EJBTimerService from crashing
+			logger.error("Unhandled exception in warm()", e);
+		}
+	}
+
+	/**
+	 * Calculate and cache the sizes of recently created or accessed entities for
+	 * one facility.
+	 *
+	 * @param facilityName      Facility to warm the cache for
+	 * @param sessionId         ICAT sessionId to find and size entities with
+	 * @param injectedIdsClient optional (possibly mock) IdsClient
+	 * @return The number of entities whose sizes were calculated or checked
+	 * @throws Exception if ICAT cannot be queried for candidates
+	 */
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	public int warmFacility(String facilityName, String sessionId, IdsClient injectedIdsClient) throws Exception {
+		// This method is intended for testing, but we are forced to make it public
+		// rather than protected.
+		Properties properties = Properties.getInstance();
+		String propertyRoot = "facility." + facilityName + ".sizeWarmer.";
+		int maxPerRun = Integer.valueOf(properties.getProperty(propertyRoot + "maxPerRun", "10"));
+		long lookbackSeconds = Long.valueOf(properties.getProperty(propertyRoot + "lookbackSeconds", "86400"));
+		long lifetimeSeconds = Long.valueOf(properties.getProperty("investigationSizeCacheLifetimeSeconds", "0"));
+
+		FacilityMap facilityMap = FacilityMap.getInstance();
+		IcatClient icatClient = new IcatClient(facilityMap.getIcatUrl(facilityName), sessionId);
+		IdsClient idsClient = injectedIdsClient;
+		if (idsClient == null) {
+			idsClient = new IdsClient(facilityMap.getIdsUrl(facilityName), facilityName);
+		}
+
+		long now = new Date().getTime();
+		Date since = new Date(now - lookbackSeconds * 1000);
+		Set<String> candidates = new LinkedHashSet<>();
+
+		// Investigations whose cached size is recently used, but has outlived its lifetime
+		if (lifetimeSeconds > 0) {
+			Date createdBefore = new Date(now - lifetimeSeconds * 1000);
+			String prefix = IdsClient.getSizeKeyPrefix(facilityName) + "investigation:";
+			for (String key : cacheRepository.getKeysAccessedSince(prefix, since, createdBefore, maxPerRun)) {
+				candidates.add("investigation " + key.substring(prefix.length()));
+			}
+		}
+
+		// Newly created entities which have not been sized yet. Page past those
+		// which are already cached, so that older entities in the window are also
+		// reached once the newest have been sized. Each page is checked against the
+		// cache in bulk, without counting as an access to the cached sizes.
+		for (String entityType : new String[] { "investigation", "dataset" }) {
+			int offset = 0;
+			while (candidates.size() < maxPerRun) {
+				List<Long> entityIds = icatClient.getRecentEntityIds(entityType, since, offset, CANDIDATE_PAGE_SIZE);
+				List<String> keys = new ArrayList<>();
+				for (Long entityId : entityIds) {
+					keys.add(IdsClient.getSizeKey(facilityName, entityType, entityId));
+				}
+				Set<String> cachedKeys = cacheRepository.getExistingKeys(keys);
+				for (int i = 0; i < entityIds.size() && candidates.size() < maxPerRun; i++) {
+					if (!cachedKeys.contains(keys.get(i))) {
+						candidates.add(entityType + " " + entityIds.get(i));
+					}
+				}
+				if (entityIds.size() < CANDIDATE_PAGE_SIZE) {
+					break;
+				}
+				offset += CANDIDATE_PAGE_SIZE;
+			}
+		}
+
+		List<String> toWarm = new ArrayList<>(candidates);
+		toWarm = toWarm.subList(0, Math.min(maxPerRun, toWarm.size()));
+		for (String candidate : toWarm) {
+			String[] pair = candidate.split(" ");
+			try {
+				idsClient.getSize(cacheRepository, sessionId, pair[0], Long.valueOf(pair[1]));
+			} catch (TopcatException | NumberFormatException e) {
+				logger.warn("Could not warm size of {}: {}", candidate, e.getMessage());
+			}
+		}
+		logger.debug("Warmed {} sizes for {}", toWarm.size(), facilityName);
+		return toWarm.size();
+	}
+}
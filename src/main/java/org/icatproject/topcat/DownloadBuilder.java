@@ -65,7 +65,7 @@ public class DownloadBuilder {
 		userName = icatClient.getUserName();
 		fullName = icatClient.getFullName();
 		priority = icatClient.getQueuePriority(userName);
-		icatClient.checkQueueAllowed(userName);
+		icatClient.checkQueueAllowed(priority);
 	}
 
 	/**
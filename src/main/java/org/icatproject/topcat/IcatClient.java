@@ -9,6 +9,8 @@ import java.util.ListIterator;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.io.UnsupportedEncodingException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.net.URLEncoder;
 
 import org.icatproject.topcat.httpclient.*;
@@ -64,7 +66,6 @@ public class IcatClient {
 	 * Utility class for calculating the count and size of a cart.
 	 */
 	public class EntityCounter {
-		private int getUrlLimit = Integer.parseInt(Properties.getInstance().getProperty("getUrlLimit", "1024"));
 		public long totalSize = 0L;
 		public long totalCount = 0L;
 
@@ -96,25 +97,7 @@ public class IcatClient {
 		 * @throws TopcatException if ICAT query fails
 		 */
 		private void processIds(List<Long> ids, String queryPrefix) throws UnsupportedEncodingException, TopcatException {
-			if (!ids.isEmpty()) {
-				int chunkLimit = getUrlLimit - minimumQuerySize - URLEncoder.encode(queryPrefix, "UTF8").length() - parenthesisSize;
-				ListIterator<Long> iterator = ids.listIterator();
-				Long id = iterator.next();
-				String chunkedIds = id.toString();
-				int chunkSize = URLEncoder.encode(chunkedIds, "UTF8").length();
-				while (iterator.hasNext()) {
-					id = iterator.next();
-					String idString = id.toString();
-					int encodedIdLength = URLEncoder.encode(idString, "UTF8").length();
-					if (chunkSize + commaSize + encodedIdLength > chunkLimit) {
-						submitIdsChunk(queryPrefix, chunkedIds);
-						chunkedIds = idString;
-						chunkSize = encodedIdLength;
-					} else {
-						chunkedIds += "," + idString;
-						chunkSize += commaSize + encodedIdLength;
-					}
-				}
+			for (String chunkedIds : chunkIds(ids, queryPrefix, ")")) {
 				submitIdsChunk(queryPrefix, chunkedIds);
 			}
 		}
@@ -146,20 +129,23 @@ public class IcatClient {
 	private Logger logger = LoggerFactory.getLogger(IcatClient.class);
 
 	private HttpClient httpClient;
+	private String icatUrl;
 	private String sessionId;
 
+	// IcatClient instances are created per request, so the results of identity
+	// lookups are memoised here to avoid repeating the same round trips to ICAT
+	// within a single request. These are reset whenever the sessionId changes.
+	// The userName and fullName are also shared between requests via the
+	// SessionCache.
+	private SessionCache.Identity identity = new SessionCache.Identity();
+	private Boolean admin;
+	private final Map<String, Integer> queuePriorities = new HashMap<>();
+	private Set<String> groupings;
+
 	private static final int minimumQuerySize = "entityManager?sessionId=&query=".length() + 36;  // sessionIds are 36 characters
 	private static final int commaSize;
-	private static final int parenthesisSize;
 
 	static {
-		int parenthesisSizeNonFinal = 3;
-		try {
-			parenthesisSizeNonFinal = URLEncoder.encode(")", "UTF8").length();
-		} catch (UnsupportedEncodingException e) {} finally{
-			parenthesisSize = parenthesisSizeNonFinal;
-		}
-
 		int commaSizeNonFinal = 3;
 		try {
 			commaSizeNonFinal = URLEncoder.encode(",", "UTF8").length();
@@ -170,11 +156,39 @@ public class IcatClient {
 
 	public IcatClient(String url) {
 		this.httpClient = new HttpClient(url + "/icat");
+		this.icatUrl = url;
 	}
 
 	public IcatClient(String url, String sessionId) {
 		this(url);
 		this.sessionId = sessionId;
+		this.identity = SessionCache.getInstance().getIdentity(icatUrl, sessionId);
+	}
+
+	/**
+	 * Gets a functional sessionId to use for the queue and other background
+	 * work, logging in with the queue.account properties if needed.
+	 * 
+	 * @param sessionIds   Map from Facility to functional sessionId, which is
+	 *                     updated after logging in
+	 * @param facilityName Name of ICAT Facility to get the sessionId for
+	 * @return Functional ICAT sessionId
+	 * @throws Exception If the login fails
+	 */
+	public static String getQueueSessionId(Map<String, String> sessionIds, String facilityName) throws Exception {
+		String sessionId = sessionIds.get(facilityName);
+		if (sessionId == null) {
+			IcatClient icatClient = new IcatClient(FacilityMap.getInstance().getIcatUrl(facilityName));
+			Properties properties = Properties.getInstance();
+			String plugin = properties.getProperty("queue.account." + facilityName + ".plugin");
+			String username = properties.getProperty("queue.account." + facilityName + ".username");
+			String password = properties.getProperty("queue.account." + facilityName + ".password");
+			String jsonString = icatClient.login(plugin, username, password);
+			JsonObject jsonObject = Utils.parseJsonObject(jsonString);
+			sessionId = jsonObject.getString("sessionId");
+			sessionIds.put(facilityName, sessionId);
+		}
+		return sessionId;
 	}
 
 	/**
@@ -222,14 +236,20 @@ public class IcatClient {
 	}
 
 	public String getUserName() throws TopcatException {
+		if (identity.userName != null) {
+			return identity.userName;
+		}
 		try {
 			Response response = httpClient.get("session/" + sessionId, new HashMap<String, String>());
+			evictSessionIfForbidden(response);
 			if(response.getCode() == 404){
 				throw new NotFoundException("Could not run getUserName got a 404 response");
 			} else if(response.getCode() >= 400){
 				throw new BadRequestException(Utils.parseJsonObject(response.toString()).getString("message"));
 			}
-			return Utils.parseJsonObject(response.toString()).getString("userName");
+			identity.userName = Utils.parseJsonObject(response.toString()).getString("userName");
+			SessionCache.getInstance().put(icatUrl, sessionId, identity);
+			return identity.userName;
 		} catch (TopcatException e){
 			throw e;
 		} catch (Exception e){
@@ -238,16 +258,22 @@ public class IcatClient {
 	}
 
 	public Boolean isAdmin() throws TopcatException {
+		if (admin != null) {
+			return admin;
+		}
 		try {
 			String[] adminUserNames = getAdminUserNames();
 			String userName = getUserName();
 			int i;
 
+			admin = false;
 			for (i = 0; i < adminUserNames.length; i++) {
 				if(userName.equals(adminUserNames[i])){
-					return true;
+					admin = true;
+					break;
 				}
 			}
+			return admin;
 		} catch(Exception e){
 			logger.error("isAdmin: " + e.getMessage());
 			// Ought to throw a BadRequestException here,
@@ -258,11 +284,14 @@ public class IcatClient {
 	}
 
 	public String getFullName() throws TopcatException {
+		if (identity.fullName != null) {
+			return identity.fullName;
+		}
 		try {
 			String query = "select user.fullName from User user where user.name = :user";
 			String url = "entityManager?sessionId=" + URLEncoder.encode(sessionId, "UTF8") + "&query=" + URLEncoder.encode(query, "UTF8");
 			Response response = httpClient.get(url, new HashMap<String, String>());
-			
+			evictSessionIfForbidden(response);
 			if(response.getCode() == 404){
 				logger.error("IcatClient.getFullName: got a 404 response");
 				throw new NotFoundException("Could not run getFullName got a 404 response");
@@ -275,10 +304,11 @@ public class IcatClient {
 			JsonArray responseArray = Utils.parseJsonArray(response.toString());
 			if( responseArray.size() == 0 || responseArray.isNull(0) ){
 				logger.warn("IcatClient.getFullName: client returned no or null result, so returning userName");
-				return getUserName();
+				identity.fullName = getUserName();
 			} else {
-				return responseArray.getString(0);
+				identity.fullName = responseArray.getString(0);
 			}
+			return identity.fullName;
 		} catch (TopcatException e){
 			throw e;
 		} catch (Exception e){
@@ -324,7 +354,21 @@ public class IcatClient {
 	 */
 	public DatafilesResponse getDatafiles(List<String> files) throws TopcatException, UnsupportedEncodingException {
 		DatafilesResponse response = new DatafilesResponse();
+
+		// Locations recently found to be missing for this session are not queried again
+		NegativeCache negativeCache = NegativeCache.getInstance();
+		Set<String> cachedMissing = new HashSet<>();
+		List<String> uncachedFiles = new ArrayList<>();
+		for (String file : files) {
+			if (negativeCache.get(icatUrl, sessionId, getLocationRequest(file)) != null) {
+				cachedMissing.add(file);
+			} else {
+				uncachedFiles.add(file);
+			}
+		}
+		files = uncachedFiles;
 		if (files.size() == 0) {
+			response.missing.addAll(cachedMissing);
 			// Ensure that we don't error when calling .next() below by returning early
 			return response;
 		}
@@ -358,10 +402,88 @@ public class IcatClient {
 			}
 		}
 		response.submitDatafilesQuery(queryPrefix + chunkedFiles + querySuffix);
-	
+
+		for (String missingFile : response.missing) {
+			NotFoundException exception = new NotFoundException("Datafile with location " + missingFile + " not found");
+			negativeCache.put(icatUrl, sessionId, getLocationRequest(missingFile), exception);
+		}
+		response.missing.addAll(cachedMissing);
 		return response;
 	}
 
+	/**
+	 * @param location ICAT Datafile.location
+	 * @return Request used to cache that the location is missing
+	 */
+	private static String getLocationRequest(String location) {
+		return "Datafile.location " + location;
+	}
+
+	/**
+	 * Split ids into comma separated chunks, such that a query formed from the
+	 * prefix, a chunk and the suffix does not exceed the configurable limit on GET
+	 * url length.
+	 * 
+	 * @param ids         List of ICAT Entity.id
+	 * @param queryPrefix Query up to but not including the chunked list of ids
+	 * @param querySuffix Query after the chunked list of ids
+	 * @return List of comma separated chunks of ids
+	 * @throws UnsupportedEncodingException if Entity ids cannot be URL encoded for ICAT queries
+	 */
+	private List<String> chunkIds(List<Long> ids, String queryPrefix, String querySuffix) throws UnsupportedEncodingException {
+		List<String> chunks = new ArrayList<>();
+		if (ids.isEmpty()) {
+			return chunks;
+		}
+		int getUrlLimit = Integer.parseInt(Properties.getInstance().getProperty("getUrlLimit", "1024"));
+		int querySuffixSize = URLEncoder.encode(querySuffix, "UTF8").length();
+		int chunkLimit = getUrlLimit - minimumQuerySize - URLEncoder.encode(queryPrefix, "UTF8").length() - querySuffixSize;
+		ListIterator<Long> iterator = ids.listIterator();
+		Long id = iterator.next();
+		String chunkedIds = id.toString();
+		int chunkSize = URLEncoder.encode(chunkedIds, "UTF8").length();
+		while (iterator.hasNext()) {
+			id = iterator.next();
+			String idString = id.toString();
+			int encodedIdLength = URLEncoder.encode(idString, "UTF8").length();
+			if (chunkSize + commaSize + encodedIdLength > chunkLimit) {
+				chunks.add(chunkedIds);
+				chunkedIds = idString;
+				chunkSize = encodedIdLength;
+			} else {
+				chunkedIds += "," + idString;
+				chunkSize += commaSize + encodedIdLength;
+			}
+		}
+		chunks.add(chunkedIds);
+		return chunks;
+	}
+
+	/**
+	 * Get the fileSize field of each of the specified Investigations, Datasets or
+	 * Datafiles, chunking to avoid a GET request which exceeds the configurable
+	 * limit.
+	 * 
+	 * @param entityType Either "investigation", "dataset" or "datafile"
+	 * @param ids        List of ICAT Entity.id
+	 * @return Map from ICAT Entity.id to fileSize. Entities which could not be
+	 *         found, or have no fileSize set, are not included.
+	 * @throws TopcatException
+	 * @throws UnsupportedEncodingException
+	 */
+	public Map<Long, Long> getFileSizes(String entityType, List<Long> ids) throws TopcatException, UnsupportedEncodingException {
+		Map<Long, Long> fileSizes = new HashMap<>();
+		String queryPrefix = "SELECT e.id, e.fileSize FROM " + StringUtils.capitalize(entityType) + " e WHERE e.id IN (";
+		for (String chunkedIds : chunkIds(ids, queryPrefix, ")")) {
+			for (JsonArray result : submitQuery(queryPrefix + chunkedIds + ")").getValuesAs(JsonArray.class)) {
+				if (result.get(1).getValueType().equals(ValueType.NUMBER)) {
+					fileSizes.put(result.getJsonNumber(0).longValueExact(), result.getJsonNumber(1).longValueExact());
+				}
+			}
+		}
+		return fileSizes;
+	}
+
 	/**
 	 * Get all Datasets in the specified DataCollection.
 	 * 
@@ -394,6 +516,29 @@ public class IcatClient {
 		return submitQuery(query);
 	}
 
+	/**
+	 * Get the ids of the most recently created Investigations or Datasets.
+	 * 
+	 * @param entityType Either "investigation" or "dataset"
+	 * @param since      Only Entities created after this time are returned
+	 * @param offset     Number of ids to skip, for fetching later pages
+	 * @param limit      Maximum number of ids to return
+	 * @return List of ICAT Entity ids, most recently created first
+	 * @throws TopcatException
+	 */
+	public List<Long> getRecentEntityIds(String entityType, Date since, int offset, int limit) throws TopcatException {
+		String entityCapital = StringUtils.capitalize(entityType);
+		String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(since);
+		String query = "SELECT e.id FROM " + entityCapital + " e WHERE e.createTime > {ts " + timestamp + "}";
+		// Order by id as well, so that pages are stable when createTimes are equal
+		query += " ORDER BY e.createTime DESC, e.id DESC LIMIT " + offset + ", " + limit;
+		List<Long> ids = new ArrayList<>();
+		for (JsonNumber id : submitQuery(query).getValuesAs(JsonNumber.class)) {
+			ids.add(id.longValueExact());
+		}
+		return ids;
+	}
+
 	/**
 	 * Utility method to get the fileCount (not size) of an Investigation by COUNT
 	 * of its child Datafiles. Ideally the fileCount field should be used, this is
@@ -473,14 +618,17 @@ public class IcatClient {
 	 * @throws TopcatException
 	 */
 	private JsonArray submitQuery(String query) throws TopcatException {
+		checkNegativeCache(query);
 		try {
 			String encodedQuery = URLEncoder.encode(query, "UTF8");
 			String url = "entityManager?sessionId=" + URLEncoder.encode(sessionId, "UTF8") + "&query=" + encodedQuery;
 			Response response = httpClient.get(url, new HashMap<String, String>());
+			evictSessionIfForbidden(response);
 			if (response.getCode() == 404) {
-				throw new NotFoundException("Could not run submitQuery got a 404 response");
+				throw cacheIfNegative(response, query, new NotFoundException("Could not run submitQuery got a 404 response"));
 			} else if (response.getCode() >= 400) {
-				throw new BadRequestException(Utils.parseJsonObject(response.toString()).getString("message"));
+				String message = Utils.parseJsonObject(response.toString()).getString("message");
+				throw cacheIfNegative(response, query, new BadRequestException(message));
 			}
 			return Utils.parseJsonArray(response.toString());
 		} catch (TopcatException e) {
@@ -524,11 +672,14 @@ public class IcatClient {
 			String entityCapital = StringUtils.capitalize(entityType);
 			String query = URLEncoder.encode("SELECT o FROM " + entityCapital + " o LIMIT 0, " + limit, "UTF8");
 			String url = "entityManager?sessionId="  + URLEncoder.encode(sessionId, "UTF8") + "&query=" + query;
+			checkNegativeCache(url);
 			Response response = httpClient.get(url, new HashMap<String, String>());
+			evictSessionIfForbidden(response);
 			if(response.getCode() == 404){
-				throw new NotFoundException("Could not run getEntity got a 404 response");
+				throw cacheIfNegative(response, url, new NotFoundException("Could not run getEntity got a 404 response"));
 			} else if(response.getCode() >= 400){
-				throw new BadRequestException(Utils.parseJsonObject(response.toString()).getString("message"));
+				String message = Utils.parseJsonObject(response.toString()).getString("message");
+				throw cacheIfNegative(response, url, new BadRequestException(message));
 			}
 			List<JsonObject> entities = new ArrayList<>();
 			for (JsonValue entity : Utils.parseJsonArray(response.toString())) {
@@ -592,12 +743,15 @@ public class IcatClient {
 			}
 
 			for(String passedUrl : passedUrls){
+				checkNegativeCache(passedUrl);
 				Response response = httpClient.get(passedUrl, new HashMap<String, String>());
+				evictSessionIfForbidden(response);
 
 				if(response.getCode() == 404){
-	                throw new NotFoundException("Could not run getEntities got a 404 response");
+	                throw cacheIfNegative(response, passedUrl, new NotFoundException("Could not run getEntities got a 404 response"));
 	            } else if(response.getCode() >= 400){
-	                throw new BadRequestException(Utils.parseJsonObject(response.toString()).getString("message"));
+	                String message = Utils.parseJsonObject(response.toString()).getString("message");
+	                throw cacheIfNegative(response, passedUrl, new BadRequestException(message));
 	            }
 
 				for(JsonValue entityValue : Utils.parseJsonArray(response.toString())){
@@ -645,22 +799,72 @@ public class IcatClient {
 	 * @throws TopcatException
 	 */
 	public int getQueuePriority(String userName) throws TopcatException {
+		Integer priority = queuePriorities.get(userName);
+		if (priority == null) {
+			priority = lookupQueuePriority(userName);
+			queuePriorities.put(userName, priority);
+		}
+		return priority;
+	}
+
+	/**
+	 * Determine the queue priority of a user by querying ICAT, without reference
+	 * to any previously memoised value.
+	 * 
+	 * @param userName ICAT User.name to determine the queue priority of
+	 * @return int representing the queue priority
+	 * @throws TopcatException
+	 */
+	private int lookupQueuePriority(String userName) throws TopcatException {
 		logger.debug("Get priority for {}", userName);
 		PriorityMap priorityMap = PriorityMap.getInstance();
 		Integer userPriority = priorityMap.getUserPriority(userName);
 		if (userPriority != null) {
 			return userPriority;
 		}
-		HashMap<Integer, String> mapping = priorityMap.getQueryMapping();
-		List<Integer> keyList = new ArrayList<>(mapping.keySet());
-		Collections.sort(keyList);
-		for (Integer priority : keyList) {
-			if (checkUser(userName, mapping.get(priority)) > 0) {
-				return priority;
-			}
+		Integer cachedPriority = priorityMap.getCachedPriority(icatUrl, userName);
+		if (cachedPriority != null) {
+			return cachedPriority;
 		}
 
-		return priorityMap.getAuthenticatedPriority(userName);
+		int priority = resolveQueryPriority(userName, priorityMap);
+		priorityMap.cachePriority(icatUrl, userName, priority);
+		return priority;
+	}
+
+	/**
+	 * ICAT cannot return which of several conditions a User matched, so first
+	 * check all the levels with a single combined query. In the common case of no
+	 * match, this is the only round trip needed. Otherwise, the conditions are
+	 * cumulative so the highest matching level is found by bisection.
+	 * 
+	 * @param userName    ICAT User.name to determine the queue priority of
+	 * @param priorityMap PriorityMap defining the JPQL condition for each level
+	 * @return int representing the queue priority
+	 * @throws TopcatException
+	 */
+	private int resolveQueryPriority(String userName, PriorityMap priorityMap) throws TopcatException {
+		List<Integer> levels = priorityMap.getQueryLevels();
+		if (levels.isEmpty()) {
+			return priorityMap.getAuthenticatedPriority(userName);
+		}
+
+		int high = levels.size() - 1;
+		if (checkUser(userName, priorityMap.getCombinedCondition(levels.get(high))) == 0) {
+			return priorityMap.getAuthenticatedPriority(userName);
+		}
+
+		// The user matches at least one level at or above levels[high]
+		int low = 0;
+		while (low < high) {
+			int middle = (low + high) / 2;
+			if (checkUser(userName, priorityMap.getCombinedCondition(levels.get(middle))) > 0) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return levels.get(low);
 	}
 
 	/**
@@ -678,16 +882,70 @@ public class IcatClient {
 	}
 
 	/**
-	 * @param userName  ICAT User.name
 	 * @param groupings ICAT Grouping.names
-	 * @return whether userName is in any of the named groupings
+	 * @return whether the User of this session is in any of the named groupings
 	 * @throws TopcatException if the query fails
 	 */
-	public boolean isInGroups(String userName, Set<String> groupings) throws TopcatException {
-		String query = "SELECT userGroup FROM UserGroup userGroup WHERE userGroup.user.name = :user";
-		query += " AND userGroup.grouping.name IN ('" + String.join("','", groupings) + "')";
-		JsonArray results = submitQuery(query);
-		return results.size() > 0;
+	public boolean isInGroups(Set<String> groupings) throws TopcatException {
+		return !Collections.disjoint(getGroupings(), groupings);
+	}
+
+	/**
+	 * @return The names of all Groupings the User of this session belongs to
+	 * @throws TopcatException if the query fails
+	 */
+	public Set<String> getGroupings() throws TopcatException {
+		if (groupings == null) {
+			String query = "SELECT userGroup.grouping.name FROM UserGroup userGroup WHERE userGroup.user.name = :user";
+			Set<String> names = new HashSet<>();
+			for (JsonString name : submitQuery(query).getValuesAs(JsonString.class)) {
+				names.add(name.getString());
+			}
+			groupings = Collections.unmodifiableSet(names);
+		}
+		return groupings;
+	}
+
+	/**
+	 * ICAT responds with 403 when a session has expired or been logged out, in
+	 * which case any cached identity for the session should no longer be used.
+	 * 
+	 * @param response Response from ICAT
+	 */
+	private void evictSessionIfForbidden(Response response) {
+		if (response.getCode() == 403) {
+			SessionCache.getInstance().remove(icatUrl, sessionId);
+		}
+	}
+
+	/**
+	 * Throw the exception cached for a request which recently failed because it
+	 * was not found or forbidden, if there is one.
+	 * 
+	 * @param request Query or url of the request
+	 * @throws TopcatException the cached exception
+	 */
+	private void checkNegativeCache(String request) throws TopcatException {
+		TopcatException exception = NegativeCache.getInstance().get(icatUrl, sessionId, request);
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * Cache the exception for a request if ICAT responded with 403 or 404, so that
+	 * repeating the request does not contact ICAT again until the entry expires.
+	 * 
+	 * @param response  Response from ICAT
+	 * @param request   Query or url of the request
+	 * @param exception Exception to be thrown for the response
+	 * @return The exception, so that it can be thrown by the caller
+	 */
+	private TopcatException cacheIfNegative(Response response, String request, TopcatException exception) {
+		if (response.getCode() == 403 || response.getCode() == 404) {
+			NegativeCache.getInstance().put(icatUrl, sessionId, request, exception);
+		}
+		return exception;
 	}
 
 	protected String[] getAdminUserNames() throws Exception {
@@ -699,6 +957,10 @@ public class IcatClient {
 	 */
 	public void setSessionId(String sessionId) {
 		this.sessionId = sessionId;
+		identity = SessionCache.getInstance().getIdentity(icatUrl, sessionId);
+		admin = null;
+		queuePriorities.clear();
+		groupings = null;
 	}
 
 }
@@ -0,0 +1,62 @@
+package org.icatproject.topcat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the capabilities of each IDS, which essentially never change, so that
+ * submitting a Download (or each part of a queued Download) does not need to
+ * ask the IDS again. Entries are keyed by the IDS url, and can be refreshed
+ * before they expire by clearing the "idsCapabilities" region of
+ * CacheRegistry.
+ */
+public class IdsCapabilityCache {
+
+	private static IdsCapabilityCache instance = null;
+
+	public synchronized static IdsCapabilityCache getInstance() {
+		if (instance == null) {
+			instance = new IdsCapabilityCache();
+			CacheRegistry.getInstance().register("idsCapabilities", instance::clear);
+		}
+		return instance;
+	}
+
+	private Logger logger = LoggerFactory.getLogger(IdsCapabilityCache.class);
+
+	private TimedCache<String, Boolean> isTwoLevel;
+
+	public IdsCapabilityCache() {
+		Properties properties = Properties.getInstance();
+		int maxSize = Integer.valueOf(properties.getProperty("cache.idsCapabilities.maxSize", "100"));
+		long lifetimeSeconds = Long.valueOf(properties.getProperty("cache.idsCapabilities.lifetimeSeconds", "86400"));
+		isTwoLevel = new TimedCache<>(maxSize, lifetimeSeconds);
+		if (!isTwoLevel.isEnabled()) {
+			logger.info("IDS capability caching is disabled");
+		}
+	}
+
+	/**
+	 * @param url IDS url
+	 * @return Whether the IDS is two level, or null if there is no valid cached
+	 *         entry
+	 */
+	public Boolean getIsTwoLevel(String url) {
+		return isTwoLevel.get(url);
+	}
+
+	/**
+	 * @param url      IDS url
+	 * @param twoLevel Whether the IDS is two level
+	 */
+	public void putIsTwoLevel(String url, boolean twoLevel) {
+		isTwoLevel.put(url, twoLevel);
+	}
+
+	/**
+	 * Remove all cached capabilities.
+	 */
+	public void clear() {
+		isTwoLevel.clear();
+	}
+}
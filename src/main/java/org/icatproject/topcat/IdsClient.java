@@ -6,6 +6,9 @@ import java.util.regex.Pattern;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import org.icatproject.topcat.httpclient.*;
 import org.icatproject.topcat.exceptions.*;
@@ -26,7 +29,15 @@ public class IdsClient {
 
     private HttpClient httpClient;
 
+    private String url;
+
+    // Facility the IDS belongs to, used to scope cached sizes
+    private String facilityName;
+
     private int timeout;
+
+    // Sizes currently being calculated, shared between all instances
+    private static final ConcurrentHashMap<String, CompletableFuture<Long>> inFlightSizes = new ConcurrentHashMap<>();
     
     private long investigationSizeCacheLifetime;
     
@@ -36,7 +47,20 @@ public class IdsClient {
     private static final Pattern IDS_TIMEOUT_PATTERN = Pattern.compile("(\\d+)([sm]?)");
    
     public IdsClient(String url){
+        this(url, null);
+    }
+
+    /**
+     * @param url          IDS url
+     * @param facilityName Facility the IDS belongs to, which is included in the
+     *                     keys of cached sizes so they can be invalidated per
+     *                     facility. May be null, in which case the keys are not
+     *                     scoped to a facility.
+     */
+    public IdsClient(String url, String facilityName){
         this.httpClient = new HttpClient(url + "/ids");
+        this.url = url;
+        this.facilityName = facilityName;
         Properties properties = Properties.getInstance();
         this.timeout = parseTimeout(properties.getProperty("ids.timeout", "-1"));
         this.investigationSizeCacheLifetime = Long.valueOf(properties.getProperty("investigationSizeCacheLifetimeSeconds", "0"));
@@ -122,7 +146,18 @@ public class IdsClient {
         }
     }
 
+    /**
+     * @return Whether the IDS is two level, which is only requested from the IDS
+     *         if it is not in the IdsCapabilityCache
+     * @throws TopcatException
+     */
     public boolean isTwoLevel() throws TopcatException {
+        IdsCapabilityCache capabilityCache = IdsCapabilityCache.getInstance();
+        Boolean cachedTwoLevel = capabilityCache.getIsTwoLevel(url);
+        if(cachedTwoLevel != null){
+            return cachedTwoLevel;
+        }
+        boolean twoLevel;
         try {
             Response response = httpClient.get("isTwoLevel", new HashMap<String, String>());
 
@@ -132,10 +167,12 @@ public class IdsClient {
                 throw new BadRequestException(Utils.parseJsonObject(response.toString()).getString("message"));
             }
 
-            return response.toString().equals("true");
+            twoLevel = response.toString().equals("true");
         } catch (Exception e){
             throw new BadRequestException(e.getMessage());
         }
+        capabilityCache.putIsTwoLevel(url, twoLevel);
+        return twoLevel;
     }
 
     public Long getSize(String sessionId, List<Long> investigationIds, List<Long> datasetIds, List<Long> datafileIds) throws TopcatException {
@@ -143,12 +180,25 @@ public class IdsClient {
             String prefix = "getSize?sessionId=" + sessionId + "&";
             Long size = 0L;
             
+            NegativeCache negativeCache = NegativeCache.getInstance();
             for( String chunkedUrl : chunkOffsets(prefix,investigationIds,datasetIds,datafileIds)) {            	
+                // Don't ask the IDS again for entities it recently reported as missing or forbidden
+                TopcatException cachedException = negativeCache.get(url, sessionId, chunkedUrl);
+                if(cachedException != null){
+                    throw cachedException;
+                }
                 Response out = httpClient.get(chunkedUrl, new HashMap<String, String>(), timeout);
+                TopcatException exception = null;
                 if(out.getCode() == 404){
-                    throw new NotFoundException("Could not getSize got a 404 response");
+                    exception = new NotFoundException("Could not getSize got a 404 response");
                 } else if(out.getCode() >= 400){
-                    throw new BadRequestException("Could not getSize got " + out.getCode() + " response: " + out.toString());
+                    exception = new BadRequestException("Could not getSize got " + out.getCode() + " response: " + out.toString());
+                }
+                if(exception != null){
+                    if(out.getCode() == 403 || out.getCode() == 404){
+                        negativeCache.put(url, sessionId, chunkedUrl, exception);
+                    }
+                    throw exception;
                 }
 
                 try {
@@ -168,7 +218,92 @@ public class IdsClient {
 
     public Long getSize(CacheRepository cacheRepository, String sessionId, String entityType, Long entityId) throws TopcatException {
 
-        String key = "getSize:" + entityType + ":" + entityId;
+        String key = getSizeKey(facilityName, entityType, entityId);
+        Long size = getCachedSize(cacheRepository, entityType, key);
+        if(size != null){
+            return size;
+        }
+
+        // If another request is already computing this size, wait for and share its result
+        // rather than making the same (potentially slow) calls to the IDS
+        String inFlightKey = url + " " + key;
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        CompletableFuture<Long> existing = inFlightSizes.putIfAbsent(inFlightKey, future);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InternalException("Interrupted while waiting for getSize of " + entityType + " " + entityId);
+            } catch (ExecutionException e) {
+                // The other request may have failed due to its own session, so try with ours
+                logger.debug("getSize: shared computation of {} failed, retrying", key);
+                return computeSize(cacheRepository, sessionId, entityType, entityId, key);
+            }
+        }
+
+        try {
+            // A previous computation may have finished since the cache was first checked
+            size = getCachedSize(cacheRepository, entityType, key);
+            if (size == null) {
+                size = computeSize(cacheRepository, sessionId, entityType, entityId, key);
+            }
+            future.complete(size);
+            return size;
+        } catch (TopcatException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightSizes.remove(inFlightKey, future);
+        }
+    }
+
+    /**
+     * @param cacheRepository CacheRepository to look for the size in
+     * @param entityType      Type of ICAT Entity
+     * @param entityId        ICAT Entity.id
+     * @return The cached size, or null if not cached (or expired)
+     */
+    public Long getCachedSize(CacheRepository cacheRepository, String entityType, Long entityId) {
+        return getCachedSize(cacheRepository, entityType, getSizeKey(facilityName, entityType, entityId));
+    }
+
+    /**
+     * @param entityType Type of ICAT Entity
+     * @param entityId   ICAT Entity.id
+     * @return The number of requests waiting for another request to calculate the
+     *         size of the Entity, for use in tests
+     */
+    int getInFlightWaiters(String entityType, Long entityId) {
+        CompletableFuture<Long> future = inFlightSizes.get(url + " " + getSizeKey(facilityName, entityType, entityId));
+        return future == null ? 0 : future.getNumberOfDependents();
+    }
+
+    /**
+     * @param facilityName Facility the Entity belongs to, or null
+     * @return Prefix of the keys of all sizes cached for the facility
+     */
+    public static String getSizeKeyPrefix(String facilityName) {
+        return facilityName == null ? "getSize:" : "getSize:" + facilityName + ":";
+    }
+
+    /**
+     * @param facilityName Facility the Entity belongs to, or null
+     * @param entityType   Type of ICAT Entity
+     * @param entityId     ICAT Entity.id
+     * @return Key the size of the Entity is cached against
+     */
+    public static String getSizeKey(String facilityName, String entityType, Long entityId) {
+        return getSizeKeyPrefix(facilityName) + entityType + ":" + entityId;
+    }
+
+    /**
+     * @param cacheRepository CacheRepository to look for the size in
+     * @param entityType      Type of ICAT Entity
+     * @param key             Cache key for the size
+     * @return The cached size, or null if not cached (or expired)
+     */
+    private Long getCachedSize(CacheRepository cacheRepository, String entityType, String key) {
         
         // Set lifetime for investigation size caching from configuration (issue#394)
         
@@ -178,12 +313,21 @@ public class IdsClient {
         } else {
         	lifetime = 0L;
         }
-        Long size = (Long) cacheRepository.get(key,lifetime);
-
-        if(size != null){
-            return size;
-        }
+        return (Long) cacheRepository.get(key,lifetime);
+    }
 
+    /**
+     * Calculate the size using the IDS and cache the result.
+     * 
+     * @param cacheRepository CacheRepository to store the size in
+     * @param sessionId       ICAT sessionId
+     * @param entityType      Type of ICAT Entity
+     * @param entityId        ICAT Entity.id
+     * @param key             Cache key for the size
+     * @return Size of the Entity in bytes
+     * @throws TopcatException
+     */
+    private Long computeSize(CacheRepository cacheRepository, String sessionId, String entityType, Long entityId, String key) throws TopcatException {
         List<Long> investigationIds = new ArrayList<Long>();
         List<Long> datasetIds = new ArrayList<Long>();
         List<Long> datafileIds = new ArrayList<Long>();
@@ -198,7 +342,7 @@ public class IdsClient {
             throw new BadRequestException("Unknown or supported entity \"" + entityType + "\" for getSize");
         }
 
-        size = this.getSize(sessionId,investigationIds,datasetIds,datafileIds);
+        Long size = this.getSize(sessionId,investigationIds,datasetIds,datafileIds);
         
         // Never cache zero-sized investigations if so configured (issue#394)
         if( ! (this.neverCacheZeroSizedInvestigations && size == 0 && "investigation".equals(entityType))) {
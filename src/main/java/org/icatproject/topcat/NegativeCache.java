@@ -0,0 +1,98 @@
+package org.icatproject.topcat;
+
+import org.icatproject.topcat.exceptions.TopcatException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches not found and forbidden results from ICAT and the IDS for a short
+ * time, so that repeated requests for missing or inaccessible entities do not
+ * each make a round trip. Entries are scoped to the sessionId that made the
+ * request, so one user's result is never returned to another. Only the type
+ * and message of each exception are kept, and a new exception is created for
+ * every hit, so that no exception instance is shared between requests.
+ */
+public class NegativeCache {
+
+	private static NegativeCache instance = null;
+
+	public synchronized static NegativeCache getInstance() {
+		if (instance == null) {
+			instance = new NegativeCache();
+			CacheRegistry.getInstance().register("negative", instance::clear);
+		}
+		return instance;
+	}
+
+	private Logger logger = LoggerFactory.getLogger(NegativeCache.class);
+
+	/**
+	 * Enough of a TopcatException to create an equivalent one.
+	 */
+	private static class Result {
+		private final Class<? extends TopcatException> exceptionClass;
+		private final int httpStatusCode;
+		private final String message;
+
+		private Result(TopcatException exception) {
+			this.exceptionClass = exception.getClass();
+			this.httpStatusCode = exception.getHttpStatusCode();
+			this.message = exception.getShortMessage();
+		}
+
+		private TopcatException toException() {
+			try {
+				// Subclasses set their own status code, and take only the message
+				return exceptionClass.getConstructor(String.class).newInstance(message);
+			} catch (ReflectiveOperationException e) {
+				return new TopcatException(httpStatusCode, message);
+			}
+		}
+	}
+
+	private TimedCache<String, Result> results;
+
+	public NegativeCache() {
+		Properties properties = Properties.getInstance();
+		int maxSize = Integer.valueOf(properties.getProperty("cache.negative.maxSize", "10000"));
+		long lifetimeSeconds = Long.valueOf(properties.getProperty("cache.negative.lifetimeSeconds", "30"));
+		results = new TimedCache<>(maxSize, lifetimeSeconds);
+		if (!results.isEnabled()) {
+			logger.info("Negative result caching is disabled");
+		}
+	}
+
+	/**
+	 * @param url       ICAT or IDS url the request was made to
+	 * @param sessionId ICAT sessionId the request was made with
+	 * @param request   Description of the request, such as a query
+	 * @return A new exception of the same type and message as that previously
+	 *         thrown for the request, or null if there is no valid cached entry
+	 */
+	public TopcatException get(String url, String sessionId, String request) {
+		Result result = results.get(getKey(url, sessionId, request));
+		return result == null ? null : result.toException();
+	}
+
+	/**
+	 * @param url       ICAT or IDS url the request was made to
+	 * @param sessionId ICAT sessionId the request was made with
+	 * @param request   Description of the request, such as a query
+	 * @param exception Exception to throw for the request until the entry expires
+	 */
+	public void put(String url, String sessionId, String request, TopcatException exception) {
+		results.put(getKey(url, sessionId, request), new Result(exception));
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public void clear() {
+		results.clear();
+	}
+
+	private String getKey(String url, String sessionId, String request) {
+		return url + " " + sessionId + " " + request;
+	}
+}
@@ -1,7 +1,10 @@
 package org.icatproject.topcat;
 
 import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 import org.icatproject.topcat.exceptions.ForbiddenException;
 import org.icatproject.topcat.exceptions.InternalException;
@@ -20,6 +23,7 @@ public class PriorityMap {
     public synchronized static PriorityMap getInstance() throws InternalException {
         if (instance == null) {
             instance = new PriorityMap();
+            CacheRegistry.getInstance().register("priority", instance::clearCache);
         }
         return instance;
     }
@@ -30,6 +34,7 @@ public class PriorityMap {
     private HashMap<String, Integer> authenticatedMapping = new HashMap<>();
     private HashMap<String, Integer> userMapping = new HashMap<>();
     private HashMap<Integer, String> queryMapping = new HashMap<>();
+    private TimedCache<String, Integer> priorityCache;
     private Logger logger = LoggerFactory.getLogger(PriorityMap.class);
 
     public PriorityMap() {
@@ -44,6 +49,9 @@ public class PriorityMap {
         String defaultString = properties.getProperty("queue.priority.default", "0");
         defaultPriority = Integer.valueOf(defaultString);
 
+        int cacheMaxSize = Integer.valueOf(properties.getProperty("cache.priority.maxSize", "10000"));
+        long cacheLifetimeSeconds = Long.valueOf(properties.getProperty("cache.priority.lifetimeSeconds", "300"));
+        priorityCache = new TimedCache<>(cacheMaxSize, cacheLifetimeSeconds);
 
         String authenticatedString = properties.getProperty("queue.priority.authenticated", "{}");
         parseObject(authenticatedString, authenticatedMapping);
@@ -155,6 +163,63 @@ public class PriorityMap {
         return queryMapping;
     }
 
+    /**
+     * @return Priority levels which have a JPQL condition defined, in ascending
+     *         order (so the highest priority first)
+     */
+    public List<Integer> getQueryLevels() {
+        List<Integer> levels = new ArrayList<>(queryMapping.keySet());
+        Collections.sort(levels);
+        return levels;
+    }
+
+    /**
+     * Combines the JPQL conditions for all priority levels up to and including
+     * maxPriority with OR, so that a single query can determine whether a User has
+     * any of these levels.
+     * 
+     * @param maxPriority Lowest priority (highest value) level to include
+     * @return Combined JPQL condition, or null if no levels are included
+     */
+    public String getCombinedCondition(int maxPriority) {
+        List<String> conditions = new ArrayList<>();
+        for (Integer level : getQueryLevels()) {
+            if (level <= maxPriority) {
+                conditions.add("(" + queryMapping.get(level) + ")");
+            }
+        }
+        if (conditions.isEmpty()) {
+            return null;
+        }
+        return String.join(" OR ", conditions);
+    }
+
+    /**
+     * @param icatUrl  ICAT url the User belongs to
+     * @param userName ICAT User.name
+     * @return The previously resolved priority of the User, or null if not cached
+     *         or expired
+     */
+    public Integer getCachedPriority(String icatUrl, String userName) {
+        return priorityCache.get(icatUrl + " " + userName);
+    }
+
+    /**
+     * @param icatUrl  ICAT url the User belongs to
+     * @param userName ICAT User.name
+     * @param priority Priority resolved from the JPQL conditions
+     */
+    public void cachePriority(String icatUrl, String userName, int priority) {
+        priorityCache.put(icatUrl + " " + userName, priority);
+    }
+
+    /**
+     * Remove all cached priorities.
+     */
+    public void clearCache() {
+        priorityCache.clear();
+    }
+
     /**
      * @return The priority which applies to this named user,
      *         or null if a specific priority is not defined
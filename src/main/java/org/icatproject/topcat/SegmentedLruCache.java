@@ -0,0 +1,135 @@
+package org.icatproject.topcat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Thread safe, bounded in memory cache using a segmented LRU eviction policy.
+ * New entries are placed in a probationary segment, and are only promoted to
+ * the protected segment if they are accessed again. This means a burst of keys
+ * which are each only used once cannot flush out the frequently used entries.
+ * A non-positive maxSize disables the cache entirely.
+ *
+ * @param <K> Type of the keys
+ * @param <V> Type of the cached values
+ */
+public class SegmentedLruCache<K, V> {
+
+	private final int maxSize;
+	private final int protectedMaxSize;
+
+	// Both maps are access ordered, so iteration starts from the least recently used
+	private final LinkedHashMap<K, V> probation = new LinkedHashMap<>(16, 0.75f, true);
+	private final LinkedHashMap<K, V> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * @param maxSize Maximum number of entries to hold across both segments, 80%
+	 *                of which may be held in the protected segment
+	 */
+	public SegmentedLruCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.protectedMaxSize = (int) (maxSize * 0.8);
+	}
+
+	/**
+	 * @return Whether the cache has been configured to hold any entries
+	 */
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	/**
+	 * @param key Key to look up
+	 * @return The cached value, or null if there is no entry
+	 */
+	public synchronized V get(K key) {
+		V value = protectedSegment.get(key);
+		if (value != null) {
+			return value;
+		}
+		value = probation.remove(key);
+		if (value != null) {
+			promote(key, value);
+		}
+		return value;
+	}
+
+	/**
+	 * @param key   Key to cache the value against
+	 * @param value Value to cache, null values are not cached
+	 */
+	public synchronized void put(K key, V value) {
+		if (!isEnabled() || value == null) {
+			return;
+		}
+		if (protectedSegment.containsKey(key)) {
+			protectedSegment.put(key, value);
+			return;
+		}
+		probation.put(key, value);
+		evict();
+	}
+
+	/**
+	 * @param key Key of the entry to remove
+	 */
+	public synchronized void remove(K key) {
+		if (protectedSegment.remove(key) == null) {
+			probation.remove(key);
+		}
+	}
+
+	/**
+	 * @param predicate Test for the keys of entries to remove
+	 * @return The number of entries removed
+	 */
+	public synchronized int removeKeysIf(Predicate<K> predicate) {
+		int size = size();
+		probation.keySet().removeIf(predicate);
+		protectedSegment.keySet().removeIf(predicate);
+		return size - size();
+	}
+
+	/**
+	 * Remove all entries from the cache.
+	 */
+	public synchronized void clear() {
+		probation.clear();
+		protectedSegment.clear();
+	}
+
+	/**
+	 * @return Number of entries currently held across both segments
+	 */
+	public synchronized int size() {
+		return probation.size() + protectedSegment.size();
+	}
+
+	/**
+	 * Move an entry into the protected segment, demoting the least recently used
+	 * protected entry back to probation if the segment is full.
+	 */
+	private void promote(K key, V value) {
+		protectedSegment.put(key, value);
+		if (protectedSegment.size() > protectedMaxSize) {
+			Iterator<Map.Entry<K, V>> iterator = protectedSegment.entrySet().iterator();
+			Map.Entry<K, V> eldest = iterator.next();
+			iterator.remove();
+			probation.put(eldest.getKey(), eldest.getValue());
+		}
+		evict();
+	}
+
+	/**
+	 * Evict the least recently used probationary entries until within maxSize.
+	 */
+	private void evict() {
+		Iterator<K> iterator = probation.keySet().iterator();
+		while (size() > maxSize && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package org.icatproject.topcat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the identity associated with an ICAT sessionId across requests, so
+ * that endpoints which only need to know who the user is do not need a round
+ * trip to ICAT on every call. Entries expire after a configurable lifetime, and
+ * are evicted early if ICAT reports that the session is no longer valid.
+ */
+public class SessionCache {
+
+	/**
+	 * Identity details for a single ICAT session. Fields are populated lazily as
+	 * they are looked up from ICAT.
+	 */
+	public static class Identity {
+		volatile String userName;
+		volatile String fullName;
+	}
+
+	private static SessionCache instance = null;
+
+	public synchronized static SessionCache getInstance() {
+		if (instance == null) {
+			instance = new SessionCache();
+			CacheRegistry.getInstance().register("session", instance::clear);
+		}
+		return instance;
+	}
+
+	private Logger logger = LoggerFactory.getLogger(SessionCache.class);
+
+	private TimedCache<String, Identity> identities;
+
+	public SessionCache() {
+		Properties properties = Properties.getInstance();
+		int maxSize = Integer.valueOf(properties.getProperty("cache.session.maxSize", "10000"));
+		long lifetimeSeconds = Long.valueOf(properties.getProperty("cache.session.lifetimeSeconds", "60"));
+		identities = new TimedCache<>(maxSize, lifetimeSeconds);
+		if (!identities.isEnabled()) {
+			logger.info("Session identity caching is disabled");
+		}
+	}
+
+	/**
+	 * @param icatUrl   ICAT url the session belongs to
+	 * @param sessionId ICAT sessionId
+	 * @return The cached Identity for the session, or a new empty Identity if
+	 *         there is no valid cached entry
+	 */
+	public Identity getIdentity(String icatUrl, String sessionId) {
+		Identity identity = null;
+		if (sessionId != null) {
+			identity = identities.get(getKey(icatUrl, sessionId));
+		}
+		return identity != null ? identity : new Identity();
+	}
+
+	/**
+	 * @param icatUrl   ICAT url the session belongs to
+	 * @param sessionId ICAT sessionId
+	 * @param identity  Identity to cache, which should have a userName set
+	 */
+	public void put(String icatUrl, String sessionId, Identity identity) {
+		if (sessionId != null && identity.userName != null) {
+			identities.put(getKey(icatUrl, sessionId), identity);
+		}
+	}
+
+	/**
+	 * @param icatUrl   ICAT url the session belongs to
+	 * @param sessionId ICAT sessionId to evict
+	 */
+	public void remove(String icatUrl, String sessionId) {
+		if (sessionId != null) {
+			identities.remove(getKey(icatUrl, sessionId));
+		}
+	}
+
+	/**
+	 * Remove all cached identities.
+	 */
+	public void clear() {
+		identities.clear();
+	}
+
+	private String getKey(String icatUrl, String sessionId) {
+		return icatUrl + " " + sessionId;
+	}
+}
@@ -0,0 +1,238 @@
+package org.icatproject.topcat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.icatproject.topcat.exceptions.InternalException;
+import org.icatproject.topcat.exceptions.TopcatException;
+import org.icatproject.topcat.repository.CacheRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Determines the size of ICAT Entities, either by asking the IDS to sum the
+ * files (the default), or when getSize.provider is set to "icat" by reading the
+ * fileSize fields which ICAT maintains on Investigations, Datasets and
+ * Datafiles. In the latter case the IDS is still used for any Entity whose
+ * fileSize is not set or is zero.
+ */
+public class SizeProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(SizeProvider.class);
+
+	private final String sessionId;
+	private final IdsClient idsClient;
+	private IcatClient icatClient = null;
+
+	/**
+	 * @param facilityName ICAT Facility.name
+	 * @param sessionId    ICAT sessionId
+	 * @param idsClient    IdsClient to use for sizes which cannot be read from
+	 *                     ICAT
+	 * @throws InternalException if the facility's ICAT url is not defined
+	 */
+	public SizeProvider(String facilityName, String sessionId, IdsClient idsClient) throws InternalException {
+		this.sessionId = sessionId;
+		this.idsClient = idsClient;
+		String provider = Properties.getInstance().getProperty("getSize.provider", "ids");
+		if (provider.equals("icat")) {
+			String icatUrl = FacilityMap.getInstance().getIcatUrl(facilityName);
+			this.icatClient = new IcatClient(icatUrl, sessionId);
+		} else if (!provider.equals("ids")) {
+			logger.warn("getSize.provider {} not recognised, using ids", provider);
+		}
+	}
+
+	/**
+	 * @param investigationIds List of ICAT Investigation.ids
+	 * @param datasetIds       List of ICAT Dataset.ids
+	 * @param datafileIds      List of ICAT Datafile.ids
+	 * @return Total size of all the Entities in bytes
+	 * @throws TopcatException
+	 */
+	public long getSize(List<Long> investigationIds, List<Long> datasetIds, List<Long> datafileIds) throws TopcatException {
+		if (icatClient == null) {
+			return idsClient.getSize(sessionId, investigationIds, datasetIds, datafileIds);
+		}
+
+		long size = 0L;
+		List<Long> idsInvestigationIds = new ArrayList<>(investigationIds);
+		List<Long> idsDatasetIds = new ArrayList<>(datasetIds);
+		List<Long> idsDatafileIds = new ArrayList<>(datafileIds);
+		size += removeIcatSizes("investigation", idsInvestigationIds);
+		size += removeIcatSizes("dataset", idsDatasetIds);
+		size += removeIcatSizes("datafile", idsDatafileIds);
+
+		if (!idsInvestigationIds.isEmpty() || !idsDatasetIds.isEmpty() || !idsDatafileIds.isEmpty()) {
+			size += idsClient.getSize(sessionId, idsInvestigationIds, idsDatasetIds, idsDatafileIds);
+		}
+		return size;
+	}
+
+	/**
+	 * @param cacheRepository CacheRepository for sizes calculated by the IDS
+	 * @param entityType      Type of ICAT Entity
+	 * @param entityId        ICAT Entity.id
+	 * @return Size of the Entity in bytes
+	 * @throws TopcatException
+	 */
+	public Long getSize(CacheRepository cacheRepository, String entityType, Long entityId) throws TopcatException {
+		if (icatClient != null) {
+			Long size = getIcatSizes(List.of(Map.entry(entityType, entityId))).get(Map.entry(entityType, entityId));
+			if (size != null) {
+				return size;
+			}
+		}
+		return idsClient.getSize(cacheRepository, sessionId, entityType, entityId);
+	}
+
+	/**
+	 * Get the size of each Entity. Any which cannot be read from ICAT or the cache
+	 * are calculated by the IDS in parallel, with at most getSize.maxParallel
+	 * calculations in progress at once, for up to getSize.timeoutSeconds in total.
+	 *
+	 * @param cacheRepository CacheRepository for sizes calculated by the IDS
+	 * @param entities        Pairs of entity type and id
+	 * @param executorService ExecutorService to calculate sizes with
+	 * @return Map from each pair of entity type and id to its size in bytes
+	 * @throws TopcatException if any size could not be calculated in time
+	 */
+	public Map<Entry<String, Long>, Long> getSizes(CacheRepository cacheRepository, Set<Entry<String, Long>> entities,
+			ExecutorService executorService) throws TopcatException {
+		Properties properties = Properties.getInstance();
+		int maxParallel = Integer.valueOf(properties.getProperty("getSize.maxParallel", "10"));
+		long timeoutSeconds = Long.valueOf(properties.getProperty("getSize.timeoutSeconds", "600"));
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+
+		Map<Entry<String, Long>, Long> sizes = new HashMap<>();
+		Set<Entry<String, Long>> remaining = new LinkedHashSet<>(entities);
+		if (icatClient != null) {
+			sizes.putAll(getIcatSizes(remaining));
+			remaining.removeAll(sizes.keySet());
+		}
+
+		Queue<Entry<Entry<String, Long>, Future<Long>>> futures = new ArrayDeque<>();
+		try {
+			for (Entry<String, Long> entity : remaining) {
+				String entityType = entity.getKey();
+				Long entityId = entity.getValue();
+				Long size = idsClient.getCachedSize(cacheRepository, entityType, entityId);
+				if (size != null) {
+					sizes.put(entity, size);
+					continue;
+				}
+				if (futures.size() >= maxParallel) {
+					// Wait for the oldest calculation before starting another
+					Entry<Entry<String, Long>, Future<Long>> future = futures.remove();
+					sizes.put(future.getKey(), getFutureSize(future.getValue(), deadline));
+				}
+				futures.add(Map.entry(entity, executorService.submit(() -> {
+					return idsClient.getSize(cacheRepository, sessionId, entityType, entityId);
+				})));
+			}
+			while (!futures.isEmpty()) {
+				Entry<Entry<String, Long>, Future<Long>> future = futures.remove();
+				sizes.put(future.getKey(), getFutureSize(future.getValue(), deadline));
+			}
+		} finally {
+			// Only left over if a calculation failed or timed out
+			for (Entry<Entry<String, Long>, Future<Long>> future : futures) {
+				future.getValue().cancel(true);
+			}
+		}
+		return sizes;
+	}
+
+	/**
+	 * Read the positive fileSizes of the Entities from ICAT. If ICAT cannot be
+	 * queried, an empty Map is returned so that the IDS is used instead.
+	 *
+	 * @param entities Pairs of entity type and id
+	 * @return Map from pairs of entity type and id to their ICAT fileSize
+	 */
+	private Map<Entry<String, Long>, Long> getIcatSizes(Collection<Entry<String, Long>> entities) {
+		Map<String, List<Long>> entityTypeIds = new HashMap<>();
+		for (Entry<String, Long> entity : entities) {
+			entityTypeIds.computeIfAbsent(entity.getKey(), k -> new ArrayList<>()).add(entity.getValue());
+		}
+
+		Map<Entry<String, Long>, Long> sizes = new HashMap<>();
+		try {
+			for (Entry<String, List<Long>> entry : entityTypeIds.entrySet()) {
+				String entityType = entry.getKey();
+				for (Entry<Long, Long> fileSize : icatClient.getFileSizes(entityType, entry.getValue()).entrySet()) {
+					if (fileSize.getValue() > 0) {
+						sizes.put(Map.entry(entityType, fileSize.getKey()), fileSize.getValue());
+					}
+				}
+			}
+		} catch (Exception e) {
+			logger.warn("Could not read fileSizes from ICAT, using the IDS instead: {}", e.getMessage());
+			sizes.clear();
+		}
+		return sizes;
+	}
+
+	/**
+	 * Remove any ids with a positive fileSize in ICAT from the list.
+	 *
+	 * @param entityType Type of ICAT Entity
+	 * @param ids        List of ICAT Entity.ids, which will be modified
+	 * @return Total fileSize of the ids removed
+	 */
+	private long removeIcatSizes(String entityType, List<Long> ids) {
+		if (ids.isEmpty()) {
+			return 0L;
+		}
+		long size = 0L;
+		List<Entry<String, Long>> entities = new ArrayList<>();
+		for (Long id : ids) {
+			entities.add(Map.entry(entityType, id));
+		}
+		Set<Long> icatIds = new HashSet<>();
+		for (Entry<Entry<String, Long>, Long> icatSize : getIcatSizes(entities).entrySet()) {
+			icatIds.add(icatSize.getKey().getValue());
+			size += icatSize.getValue();
+		}
+		ids.removeAll(icatIds);
+		return size;
+	}
+
+	/**
+	 * @param future   Future for a size being calculated
+	 * @param deadline System.nanoTime by which the size must have been calculated
+	 * @return The calculated size
+	 * @throws TopcatException if the calculation failed or did not finish in time
+	 */
+	private static Long getFutureSize(Future<Long> future, long deadline) throws TopcatException {
+		try {
+			return future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalException("Interrupted while getting sizes");
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			throw new InternalException("Timed out while getting sizes");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TopcatException) {
+				throw (TopcatException) e.getCause();
+			}
+			throw new InternalException(e.getCause().getMessage());
+		}
+	}
+}
@@ -16,7 +16,6 @@ import jakarta.ejb.Lock;
 import jakarta.ejb.LockType;
 import jakarta.ejb.Schedule;
 import jakarta.ejb.Singleton;
-import jakarta.json.JsonObject;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.TypedQuery;
@@ -24,6 +23,7 @@ import jakarta.annotation.Resource;
 
 import org.icatproject.topcat.domain.Download;
 import org.icatproject.topcat.domain.DownloadStatus;
+import org.icatproject.topcat.domain.DownloadSummary;
 import org.icatproject.topcat.Properties;
 import org.icatproject.topcat.Utils;
 import org.icatproject.topcat.repository.*;
@@ -118,7 +118,11 @@ public class StatusCheck {
     // This method is intended for testing, but we are forced to make it public
     // rather than protected.
     boolean statusesUpdated = false;
-    String selectString = "select download from Download download where download.isDeleted != true";
+    // Only select the fields needed to decide what to do with each Download. The
+    // Download itself, and its DownloadItems, are only loaded if it needs updating.
+    String selectString = "select new org.icatproject.topcat.domain.DownloadSummary(download.id, download.status,"
+        + " download.transport, download.facilityName, download.fileName, download.preparedId, download.createdAt,"
+        + " download.email, download.isEmailSent, download.size) from Download download where download.isDeleted != true";
     String notExpiredCondition = "download.status != org.icatproject.topcat.domain.DownloadStatus.EXPIRED";
     String preparingCondition = "download.status = org.icatproject.topcat.domain.DownloadStatus.PREPARING";
     String restoringHttpCondition = "(download.status = org.icatproject.topcat.domain.DownloadStatus.RESTORING and download.transport in ('https','http'))";
@@ -126,14 +130,14 @@ public class StatusCheck {
     String isActiveCondition = preparingCondition + " or " + restoringHttpCondition + " or " + notEmailSentCondition;
     String queryString = selectString + " and " + notExpiredCondition + " and (" + isActiveCondition + ")";
 
-    TypedQuery<Download> query = em.createQuery(queryString, Download.class);
-    List<Download> downloads = query.getResultList();
+    TypedQuery<DownloadSummary> query = em.createQuery(queryString, DownloadSummary.class);
+    List<DownloadSummary> downloads = query.getResultList();
 
     if (downloads.size() == 0) {
       return statusesUpdated;
     }
 
-    for (Download download : downloads) {
+    for (DownloadSummary download : downloads) {
       Date lastCheck = lastChecks.get(download.getId());
       Date now = new Date();
       long createdSecondsAgo = (now.getTime() - download.getCreatedAt().getTime()) / 1000;
@@ -142,12 +146,12 @@ public class StatusCheck {
         // TopcatException), we should not call it again immediately, but should impose
         // a delay. See issue #462.
         if (lastCheck == null) {
-      	  prepareDownload(download, injectedIdsClient);
+      	  prepareDownload(em.find(Download.class, download.getId()), injectedIdsClient);
           statusesUpdated = true;
         } else {
           long lastCheckSecondsAgo = (now.getTime() - lastCheck.getTime()) / 1000;
           if (lastCheckSecondsAgo >= pollIntervalWait) {
-         	  prepareDownload(download, injectedIdsClient);
+         	  prepareDownload(em.find(Download.class, download.getId()), injectedIdsClient);
             statusesUpdated = true;
           }
         }
@@ -166,42 +170,45 @@ public class StatusCheck {
     return statusesUpdated;
   }
 
-  private void performCheck(Download download, IdsClient injectedIdsClient) {
+  private void performCheck(DownloadSummary summary, IdsClient injectedIdsClient) {
+    Long downloadId = summary.getId();
     try {
       IdsClient idsClient = injectedIdsClient;
       if( idsClient == null ) {
-    	  idsClient = new IdsClient(getDownloadUrl(download.getFacilityName(),download.getTransport()));
+    	  idsClient = new IdsClient(getDownloadUrl(summary.getFacilityName(),summary.getTransport()));
       }
-      if (download.getStatus() == DownloadStatus.COMPLETE) {
-    	  logger.info("Download COMPLETE for " + download.getFileName() + " " + download.getId() + "; checking whether to send email...");
-        if (!download.getIsEmailSent()) {
+      if (summary.getStatus() == DownloadStatus.COMPLETE) {
+    	  logger.info("Download COMPLETE for " + summary.getFileName() + " " + downloadId + "; checking whether to send email...");
+        if (!summary.getIsEmailSent()) {
+          Download download = em.find(Download.class, downloadId);
           sendDownloadReadyEmail(download);
           download.setIsEmailSent(true);
           em.persist(download);
           em.flush();
         }
-        lastChecks.remove(download.getId());
-      } else if(download.getTransport().matches("https|http") && idsClient.isPrepared(download.getPreparedId())){
-    	  logger.info("Download (http[s]) for " + download.getFileName() + " " + download.getId() + " is Prepared, so setting COMPLETE and checking email...");
+        lastChecks.remove(downloadId);
+      } else if(summary.getTransport().matches("https|http") && idsClient.isPrepared(summary.getPreparedId())){
+    	  logger.info("Download (http[s]) for " + summary.getFileName() + " " + downloadId + " is Prepared, so setting COMPLETE and checking email...");
+        Download download = em.find(Download.class, downloadId);
         download.setStatus(DownloadStatus.COMPLETE);
         download.setCompletedAt(new Date());
         download.setIsEmailSent(true);
         em.persist(download);
         em.flush();
-        lastChecks.remove(download.getId());
+        lastChecks.remove(downloadId);
         sendDownloadReadyEmail(download);
       } else {
-        lastChecks.put(download.getId(), new Date());
+        lastChecks.put(downloadId, new Date());
       }
     } catch (IOException e){
-    	handleException(download,"performCheck IOException: " + e.toString());
+    	handleException(downloadId,"performCheck IOException: " + e.toString());
     } catch(NotFoundException e){
-    	handleException(download,"performCheck NotFoundException: " + e.getMessage());
+    	handleException(downloadId,"performCheck NotFoundException: " + e.getMessage());
     } catch(TopcatException e) {
     	// Note: only expire downloads for TopcatExceptions. See issue #462
-    	handleException(download,"performCheck TopcatException: " + e.toString(), true);
+    	handleException(downloadId,"performCheck TopcatException: " + e.toString(), true);
     } catch(Exception e){
-    	handleException(download,"performCheck Exception: " + e.toString());
+    	handleException(downloadId,"performCheck Exception: " + e.toString());
     }
   }
 
@@ -300,7 +307,8 @@ public class StatusCheck {
 
     if (download.getSize() <= 0) {
       try {
-        Long size = idsClient.getSize(sessionId, download.getInvestigationIds(), download.getDatasetIds(),
+        SizeProvider sizeProvider = new SizeProvider(download.getFacilityName(), sessionId, idsClient);
+        Long size = sizeProvider.getSize(download.getInvestigationIds(), download.getDatasetIds(),
             download.getDatafileIds());
         download.setSize(size);
       } catch(Exception e) {
@@ -309,7 +317,10 @@ public class StatusCheck {
       }
     }
 
-    if (download.getIsTwoLevel() || !download.getTransport().matches("https|http")) {
+    // Only two-level downloads need restoring. performCheck only polls http(s)
+    // RESTORING downloads, so a single-level download with another transport
+    // would otherwise never leave RESTORING.
+    if (download.getIsTwoLevel()) {
       logger.info("Setting Download status RESTORING for " + download.getFileName() + " " + download.getId());
       download.setStatus(DownloadStatus.RESTORING);
     } else {
@@ -336,12 +347,12 @@ public class StatusCheck {
     try {
       prepareDownload(downloadRepository, download, sessionId, injectedIdsClient);
     } catch(NotFoundException e){
-    	handleException(download, "prepareDownload NotFoundException: " + e.getMessage());
+    	handleException(download.getId(), "prepareDownload NotFoundException: " + e.getMessage());
     } catch(TopcatException e) {
     	// Note: only expire downloads for TopcatExceptions. See issue #462
-    	handleException(download, "prepareDownload TopcatException: " + e.toString(), true);
+    	handleException(download.getId(), "prepareDownload TopcatException: " + e.toString(), true);
     } catch(Exception e){
-    	handleException(download, "prepareDownload Exception: " + e.toString());
+    	handleException(download.getId(), "prepareDownload Exception: " + e.toString());
     }
   }
 
@@ -358,31 +369,6 @@ public class StatusCheck {
     prepareDownload(download, injectedIdsClient, download.getSessionId());
   }
 
-  /**
-   * Gets a functional sessionId to use for submitting to the queue, logging in if needed.
-   * 
-   * @param sessionIds   Map from Facility to functional sessionId
-   * @param facilityName Name of ICAT Facility to get the sessionId for
-   * @return Functional ICAT sessionId
-   * @throws Exception If the login fails
-   */
-  private String getQueueSessionId(Map<String, String> sessionIds, String facilityName)
-      throws Exception {
-    String sessionId = sessionIds.get(facilityName);
-    if (sessionId == null) {
-      IcatClient icatClient = new IcatClient(FacilityMap.getInstance().getIcatUrl(facilityName));
-      Properties properties = Properties.getInstance();
-      String plugin = properties.getProperty("queue.account." + facilityName + ".plugin");
-      String username = properties.getProperty("queue.account." + facilityName + ".username");
-      String password = properties.getProperty("queue.account." + facilityName + ".password");
-      String jsonString = icatClient.login(plugin, username, password);
-      JsonObject jsonObject = Utils.parseJsonObject(jsonString);
-      sessionId = jsonObject.getString("sessionId");
-      sessionIds.put(facilityName, sessionId);
-    }
-    return sessionId;
-  }
-
   /**
    * Prepares up to one Download which is QUEUED, up to the maxActiveDownloads limit.
    * Downloads will be prepared in order of priority, with all Downloads from
@@ -399,16 +385,16 @@ public class StatusCheck {
     }
 
     String selectString = "select download from Download download where download.isDeleted != true";
+    String countString = "select count(download) from Download download where download.isDeleted != true";
     String restoringCondition = "download.status = org.icatproject.topcat.domain.DownloadStatus.RESTORING";
     String queuedCondition = "download.status = org.icatproject.topcat.domain.DownloadStatus.QUEUED";
 
     int availableDownloads = maxActiveDownloads;
     if (maxActiveDownloads > 0) {
       // Work out how many "available" spaces there are by accounting for the active Downloads
-      String activeQueryString = selectString + " and " + restoringCondition;
-      TypedQuery<Download> activeDownloadsQuery = em.createQuery(activeQueryString, Download.class);
-      List<Download> activeDownloads = activeDownloadsQuery.getResultList();
-      int activeDownloadsSize = activeDownloads.size();
+      String activeQueryString = countString + " and " + restoringCondition;
+      TypedQuery<Long> activeDownloadsQuery = em.createQuery(activeQueryString, Long.class);
+      int activeDownloadsSize = activeDownloadsQuery.getSingleResult().intValue();
       if (activeDownloadsSize >= maxActiveDownloads) {
         String format = "More downloads currently RESTORING {} than maxActiveDownloads {}, cannot prepare queued jobs";
         logger.trace(format, activeDownloadsSize, maxActiveDownloads);
@@ -417,12 +403,18 @@ public class StatusCheck {
       availableDownloads -= activeDownloadsSize;
     }
 
+    // Count the queue, but only load the Download which will be prepared
+    String queuedCountString = countString + " and " + queuedCondition + " and download.priority > 0";
+    TypedQuery<Long> queuedCountQuery = em.createQuery(queuedCountString, Long.class);
+    long queueSize = queuedCountQuery.getSingleResult();
+    if (queueSize == 0) {
+      return;
+    }
     String queuedQueryString = selectString + " and " + queuedCondition + " and download.priority > 0";
     queuedQueryString += " order by download.priority asc NULLS FIRST, download.createdAt asc";
     TypedQuery<Download> queuedDownloadsQuery = em.createQuery(queuedQueryString, Download.class);
-    List<Download> queuedDownloads = queuedDownloadsQuery.getResultList();
-    int queueSize = queuedDownloads.size();
-    if (queueSize == 0) {
+    List<Download> queuedDownloads = queuedDownloadsQuery.setMaxResults(1).getResultList();
+    if (queuedDownloads.isEmpty()) {
       return;
     }
 
@@ -435,26 +427,27 @@ public class StatusCheck {
     }
     Download queuedDownload = queuedDownloads.get(0);
     queuedDownload.setStatus(DownloadStatus.PREPARING);
-    prepareDownload(queuedDownload, null, getQueueSessionId(sessionIds, queuedDownload.getFacilityName()));
+    prepareDownload(queuedDownload, null, IcatClient.getQueueSessionId(sessionIds, queuedDownload.getFacilityName()));
   }
 
-  private void handleException( Download download, String reason, boolean doExpire ) {
+  private void handleException( Long downloadId, String reason, boolean doExpire ) {
     if( doExpire ) {
-	      logger.error("Marking download " + download.getId() + " as expired. Reason: " + reason);
+	      logger.error("Marking download " + downloadId + " as expired. Reason: " + reason);
+	      Download download = em.find(Download.class, downloadId);
 	      download.setStatus(DownloadStatus.EXPIRED);
 	      em.persist(download);
 	      em.flush();
-	      lastChecks.remove(download.getId());
+	      lastChecks.remove(downloadId);
 	  } else {
 		  // Record that we have tried to check (or prepare) this download,
 		  // so that updateStatuses should not try again immediately.
 		  logger.warn( "Ignoring: " + reason);
-		  lastChecks.put(download.getId(), new Date());
+		  lastChecks.put(downloadId, new Date());
 	  }
   }
   
-  private void handleException( Download download, String reason ) {
-	  handleException( download, reason, false );
+  private void handleException( Long downloadId, String reason ) {
+	  handleException( downloadId, reason, false );
   }
 
   private static String getDownloadUrl( String facilityName, String downloadType ) throws InternalException{
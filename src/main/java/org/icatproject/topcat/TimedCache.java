@@ -0,0 +1,125 @@
+package org.icatproject.topcat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Simple thread safe, in memory cache with a maximum number of entries and a
+ * fixed lifetime for each entry. Once the maximum size is reached, the least
+ * recently used entry is evicted. A non-positive maxSize or lifetime disables
+ * the cache entirely, so that get always returns null.
+ *
+ * @param <K> Type of the keys
+ * @param <V> Type of the cached values
+ */
+public class TimedCache<K, V> {
+
+	private class Entry {
+		private final V value;
+		private final long expiryTime;
+
+		private Entry(V value, long expiryTime) {
+			this.value = value;
+			this.expiryTime = expiryTime;
+		}
+	}
+
+	private final int maxSize;
+	private final long lifetimeMillis;
+	private final LinkedHashMap<K, Entry> entries;
+
+	/**
+	 * @param maxSize         Maximum number of entries to hold
+	 * @param lifetimeSeconds Number of seconds an entry remains valid after it is
+	 *                        put into the cache
+	 */
+	public TimedCache(int maxSize, long lifetimeSeconds) {
+		this.maxSize = maxSize;
+		this.lifetimeMillis = lifetimeSeconds * 1000;
+		this.entries = new LinkedHashMap<K, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry> eldest) {
+				return size() > TimedCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @return Whether the cache has been configured to hold any entries
+	 */
+	public boolean isEnabled() {
+		return maxSize > 0 && lifetimeMillis > 0;
+	}
+
+	/**
+	 * @param key Key to look up
+	 * @return The cached value, or null if there is no entry or it has expired
+	 */
+	public synchronized V get(K key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expiryTime <= currentTimeMillis()) {
+			entries.remove(key);
+			return null;
+		}
+		return entry.value;
+	}
+
+	/**
+	 * @param key   Key to cache the value against
+	 * @param value Value to cache, null values are not cached
+	 */
+	public synchronized void put(K key, V value) {
+		if (!isEnabled() || value == null) {
+			return;
+		}
+		entries.put(key, new Entry(value, currentTimeMillis() + lifetimeMillis));
+	}
+
+	/**
+	 * @param key Key of the entry to remove
+	 */
+	public synchronized void remove(K key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Remove all entries from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @return Number of entries currently held, including any which have expired
+	 *         but not yet been removed
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Remove all entries which have expired.
+	 */
+	public synchronized void removeExpired() {
+		long now = currentTimeMillis();
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().expiryTime <= now) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return The current time in milliseconds, overridable for testing
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+}
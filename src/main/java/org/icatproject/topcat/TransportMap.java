@@ -1,5 +1,6 @@
 package org.icatproject.topcat;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -30,12 +31,14 @@ public class TransportMap {
     public synchronized static TransportMap getInstance() throws InternalException {
         if (instance == null) {
             instance = new TransportMap();
+            CacheRegistry.getInstance().register("groupings", instance::clearCache);
         }
         return instance;
     }
 
     private Logger logger = LoggerFactory.getLogger(PriorityMap.class);
     private HashMap<String, HashMap<String, TransportMechanism>> mapping = new HashMap<>();
+    private TimedCache<String, Set<String>> groupingsCache;
 
     /**
      * Initialise the map from the properties file.
@@ -43,6 +46,10 @@ public class TransportMap {
      */
     public TransportMap() throws InternalException {
         Properties properties = Properties.getInstance();
+        int cacheMaxSize = Integer.valueOf(properties.getProperty("cache.groupings.maxSize", "10000"));
+        long cacheLifetimeSeconds = Long.valueOf(properties.getProperty("cache.groupings.lifetimeSeconds", "300"));
+        groupingsCache = new TimedCache<>(cacheMaxSize, cacheLifetimeSeconds);
+
         FacilityMap facilityMap = FacilityMap.getInstance();
         Set<String> facilitySet =  facilityMap.getFacilities();
         for (String facilityName : facilitySet) {
@@ -112,7 +119,8 @@ public class TransportMap {
         }
 
         if (!transportMechanism.allowedGroupings.isEmpty()) {
-            if (icatClient.isInGroups(userName, transportMechanism.allowedGroupings)) {
+            Set<String> groupings = getGroupings(facility, userName, icatClient);
+            if (!Collections.disjoint(groupings, transportMechanism.allowedGroupings)) {
                 logger.debug("{} allowed due to group membership", transport);
                 return true;
             } else {
@@ -137,6 +145,33 @@ public class TransportMap {
         }
     }
 
+    /**
+     * Get the names of the Groupings the user belongs to, from the cache if
+     * possible, so that all transport mechanisms can be checked in memory.
+     * 
+     * @param facility   ICAT Facility.name
+     * @param userName   String in the form prefix/user
+     * @param icatClient IcatClient used to query for group membership
+     * @return Set of ICAT Grouping.names
+     * @throws TopcatException if the query fails
+     */
+    private Set<String> getGroupings(String facility, String userName, IcatClient icatClient) throws TopcatException {
+        String key = facility + " " + userName;
+        Set<String> groupings = groupingsCache.get(key);
+        if (groupings == null) {
+            groupings = icatClient.getGroupings();
+            groupingsCache.put(key, groupings);
+        }
+        return groupings;
+    }
+
+    /**
+     * Remove all cached Grouping memberships.
+     */
+    public void clearCache() {
+        groupingsCache.clear();
+    }
+
     /**
      * @param facilityName ICAT Facility.name
      * @return Map of transport mechanism (AKA DownloadType) name to details of that mechanism
@@ -7,7 +7,7 @@ import jakarta.persistence.*;
 import jakarta.xml.bind.annotation.XmlRootElement;
 
 @Entity
-@Table(name = "CACHE")
+@Table(name = "CACHE", indexes = { @Index(name = "CACHE_LAST_ACCESS_TIME", columnList = "LAST_ACCESS_TIME") })
 @XmlRootElement
 public class Cache implements Serializable {
 
@@ -15,7 +15,13 @@ public class Cache implements Serializable {
 	@Column(name = "KEY_")
     private String key;
 
+    // Long values (sizes) are stored directly, so that they can be read without
+    // loading the LOB or deserialising. Any other values are serialised.
+    @Column(name = "LONG_VALUE")
+    private Long longValue;
+
     @Lob
+    @Basic(fetch = FetchType.LAZY)
     @Column(name = "SERIALIZED_VALUE")
     private byte[] serializedValue;
 
@@ -36,6 +42,9 @@ public class Cache implements Serializable {
     }
 
     public Object getValue(){
+        if (longValue != null) {
+            return longValue;
+        }
         try {
             ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(this.serializedValue));
             Object object  = objectInputStream.readObject();
@@ -47,6 +56,12 @@ public class Cache implements Serializable {
     }
 
     public void setValue(Serializable object){
+        if (object instanceof Long) {
+            this.longValue = (Long) object;
+            this.serializedValue = null;
+            return;
+        }
+        this.longValue = null;
         try {
             ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
             ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
@@ -0,0 +1,42 @@
+package org.icatproject.topcat.domain;
+
+import java.io.Serializable;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Version number of a region of the in-process caches, incremented whenever
+ * the cached contents on every node need to be discarded.
+ */
+@Entity
+@Table(name = "CACHE_EPOCH")
+@XmlRootElement
+public class CacheEpoch implements Serializable {
+
+	@Id
+	@Column(name = "REGION")
+	private String region;
+
+	@Column(name = "EPOCH", nullable = false)
+	private Long epoch;
+
+	public String getRegion() {
+		return region;
+	}
+
+	public void setRegion(String region) {
+		this.region = region;
+	}
+
+	public Long getEpoch() {
+		return epoch;
+	}
+
+	public void setEpoch(Long epoch) {
+		this.epoch = epoch;
+	}
+}
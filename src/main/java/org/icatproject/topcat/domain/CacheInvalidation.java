@@ -0,0 +1,77 @@
+package org.icatproject.topcat.domain;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.TableGenerator;
+import jakarta.persistence.Temporal;
+import jakarta.persistence.TemporalType;
+import jakarta.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Records that a key, or all keys with a prefix, were removed from the cache,
+ * so that the other nodes can remove them from their in memory tier without
+ * clearing the whole of it. Rows are only kept for a short time.
+ */
+@Entity
+@Table(name = "CACHE_INVALIDATION", indexes = {
+        @Index(name = "CACHE_INVALIDATION_CREATED", columnList = "CREATED_AT")
+})
+@XmlRootElement
+public class CacheInvalidation implements Serializable {
+    private static final long serialVersionUID = 1L;
+    @Id
+    @TableGenerator(name = "CACHE_INVALIDATION_GENERATOR", table = "TOPCAT_SEQUENCE", pkColumnName = "SEQ_NAME",
+            valueColumnName = "SEQ_COUNT", pkColumnValue = "CACHE_INVALIDATION", allocationSize = 50)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "CACHE_INVALIDATION_GENERATOR")
+    @Column(name = "ID")
+    private Long id;
+
+    @Column(name = "KEY_", nullable = false)
+    private String key;
+
+    // Whether key is a prefix of the keys removed, rather than a single key
+    @Column(name = "IS_PREFIX", nullable = false)
+    private Boolean isPrefix;
+
+    @Column(name = "CREATED_AT", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createdAt;
+
+    public CacheInvalidation() {
+    }
+
+    public CacheInvalidation(String key, Boolean isPrefix) {
+        this.key = key;
+        this.isPrefix = isPrefix;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Boolean getIsPrefix() {
+        return isPrefix;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    @PrePersist
+    private void createAt() {
+        this.createdAt = new Date();
+    }
+}
@@ -53,6 +53,21 @@ public class Cart implements Serializable {
     @OneToMany(fetch = FetchType.LAZY, cascade = CascadeType.ALL, mappedBy = "cart", orphanRemoval = true)
     private List<CartItem> cartItems = new ArrayList<CartItem>();
 
+    // Totals of the fileSize and fileCount of all CartItems, or null if any
+    // CartItem is missing these values. These are for display only, as the ICAT
+    // values may have changed since the CartItems were added, so limits are
+    // enforced against totals recomputed from ICAT.
+    @Column(name = "TOTAL_SIZE", nullable = true)
+    private Long totalSize;
+
+    @Column(name = "TOTAL_COUNT", nullable = true)
+    private Long totalCount;
+
+    // Incremented whenever CartItems are added or removed, so that clients can
+    // request only the CartChanges since the version they last saw
+    @Column(name = "VERSION", nullable = false)
+    private Long version = 0L;
+
     @Column(name = "CREATED_AT", nullable=false, updatable=false)
     @Temporal(TemporalType.TIMESTAMP)
     private Date createdAt;
@@ -90,6 +105,46 @@ public class Cart implements Serializable {
         this.userName = userName;
     }
 
+    public Long getTotalSize() {
+        return totalSize;
+    }
+
+    public void setTotalSize(Long totalSize) {
+        this.totalSize = totalSize;
+    }
+
+    public Long getTotalCount() {
+        return totalCount;
+    }
+
+    public void setTotalCount(Long totalCount) {
+        this.totalCount = totalCount;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    /**
+     * Set the totals from the values stored on the CartItems, without contacting
+     * ICAT. If any CartItem is missing a value, the corresponding total is set to
+     * null.
+     */
+    public void updateTotals() {
+        Long size = 0L;
+        Long count = 0L;
+        for (CartItem cartItem : cartItems) {
+            size = (size == null || cartItem.getFileSize() == null) ? null : size + cartItem.getFileSize();
+            count = (count == null || cartItem.getFileCount() == null) ? null : count + cartItem.getFileCount();
+        }
+        this.totalSize = size;
+        this.totalCount = count;
+    }
+
     public Date getCreatedAt() {
         return createdAt;
     }
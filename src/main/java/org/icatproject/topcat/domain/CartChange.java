@@ -0,0 +1,107 @@
+package org.icatproject.topcat.domain;
+
+import java.io.Serializable;
+
+import jakarta.json.bind.annotation.JsonbTransient;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.persistence.TableGenerator;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.XmlTransient;
+
+/**
+ * Records that a CartItem was added to or removed from a Cart, at the version
+ * of the Cart which the change produced. Only the most recent versions of each
+ * Cart are kept.
+ */
+@Entity
+@Table(name = "CARTCHANGE", indexes = {
+        @Index(name = "CARTCHANGE_CART_VERSION", columnList = "CART_ID, VERSION")
+})
+@XmlRootElement
+public class CartChange implements Serializable {
+    private static final long serialVersionUID = 1L;
+    @Id
+    @TableGenerator(name = "CARTCHANGE_GENERATOR", table = "TOPCAT_SEQUENCE", pkColumnName = "SEQ_NAME",
+            valueColumnName = "SEQ_COUNT", pkColumnValue = "CARTCHANGE", allocationSize = 100)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "CARTCHANGE_GENERATOR")
+    @Column(name = "ID")
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "CART_ID", nullable = false)
+    private Cart cart;
+
+    @Column(name = "VERSION", nullable = false)
+    private Long version;
+
+    @Column(name = "CHANGE_TYPE", nullable = false)
+    @Enumerated(EnumType.STRING)
+    private CartChangeType changeType;
+
+    // Not a foreign key, as the CartItem no longer exists once it is removed
+    @Column(name = "CARTITEM_ID", nullable = false)
+    private Long cartItemId;
+
+    public CartChange() {
+    }
+
+    public CartChange(Cart cart, Long version, CartChangeType changeType, Long cartItemId) {
+        this.cart = cart;
+        this.version = version;
+        this.changeType = changeType;
+        this.cartItemId = cartItemId;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    @JsonbTransient
+    @XmlTransient
+    public Cart getCart() {
+        return cart;
+    }
+
+    public void setCart(Cart cart) {
+        this.cart = cart;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public CartChangeType getChangeType() {
+        return changeType;
+    }
+
+    public void setChangeType(CartChangeType changeType) {
+        this.changeType = changeType;
+    }
+
+    public Long getCartItemId() {
+        return cartItemId;
+    }
+
+    public void setCartItemId(Long cartItemId) {
+        this.cartItemId = cartItemId;
+    }
+}
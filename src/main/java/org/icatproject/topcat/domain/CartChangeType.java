@@ -0,0 +1,8 @@
+package org.icatproject.topcat.domain;
+
+import jakarta.xml.bind.annotation.XmlRootElement;
+
+@XmlRootElement
+public enum CartChangeType {
+    ADDED, REMOVED
+}
@@ -14,20 +14,28 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
+import jakarta.persistence.TableGenerator;
 import jakarta.xml.bind.annotation.XmlRootElement;
 import jakarta.xml.bind.annotation.XmlTransient;
 
 @Entity
-@Table(name = "CARTITEM")
+@Table(name = "CARTITEM", indexes = {
+        @Index(name = "CARTITEM_CART_ENTITY", columnList = "CART_ID, ENTITY_TYPE, ENTITY_ID")
+})
 @XmlRootElement
 public class CartItem implements Serializable {
     private static final long serialVersionUID = 1L;
+    // Ids are allocated from a table rather than by the database on insert, so
+    // that many rows can be inserted using JDBC batch writing
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @TableGenerator(name = "CARTITEM_GENERATOR", table = "TOPCAT_SEQUENCE", pkColumnName = "SEQ_NAME",
+            valueColumnName = "SEQ_COUNT", pkColumnValue = "CARTITEM", allocationSize = 100)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "CARTITEM_GENERATOR")
     @Column(name = "ID")
     private Long id;
 
@@ -41,6 +49,14 @@ public class CartItem implements Serializable {
     @Column(name = "NAME", nullable = true)
     private String name;
 
+    // Size and count of the files in the entity when it was added, or null if ICAT
+    // did not provide them
+    @Column(name = "FILE_SIZE", nullable = true)
+    private Long fileSize;
+
+    @Column(name = "FILE_COUNT", nullable = true)
+    private Long fileCount;
+
     @OneToMany(fetch = FetchType.LAZY, cascade = CascadeType.ALL, mappedBy = "cartItem", orphanRemoval = true)
     private List<ParentEntity> parentEntities = new ArrayList<ParentEntity>();
 
@@ -88,6 +104,22 @@ public class CartItem implements Serializable {
         this.entityId = entityId;
     }
 
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public Long getFileCount() {
+        return fileCount;
+    }
+
+    public void setFileCount(Long fileCount) {
+        this.fileCount = fileCount;
+    }
+
     public List<ParentEntity> getParentEntities() {
         return parentEntities;
     }
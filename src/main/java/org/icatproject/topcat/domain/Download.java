@@ -5,28 +5,37 @@ import java.util.Date;
 import java.util.List;
 import java.util.ArrayList;
 
+import jakarta.json.bind.annotation.JsonbTransient;
+import jakarta.persistence.Basic;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Lob;
 import jakarta.persistence.NamedQueries;
 import jakarta.persistence.NamedQuery;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.PrePersist;
 import jakarta.persistence.Table;
+import jakarta.persistence.TableGenerator;
 import jakarta.persistence.Temporal;
 import jakarta.persistence.TemporalType;
+import jakarta.persistence.Transient;
 import jakarta.xml.bind.annotation.XmlRootElement;
 import jakarta.xml.bind.annotation.XmlTransient;
 
 import org.eclipse.persistence.annotations.CascadeOnDelete;
 
 @Entity
-@Table(name = "DOWNLOAD")
+@Table(name = "DOWNLOAD", indexes = {
+        @Index(name = "DOWNLOAD_USER_CREATED", columnList = "USER_NAME, CREATED_AT, ID")
+})
 @CascadeOnDelete
 @NamedQueries({
         @NamedQuery(name = "Download.findAll", query = "SELECT d FROM Download d where d.isDeleted = false"),
@@ -37,8 +46,12 @@ import org.eclipse.persistence.annotations.CascadeOnDelete;
 @XmlRootElement
 public class Download implements Serializable {
     private static final long serialVersionUID = 1L;
+    // Ids are allocated from a table rather than by the database on insert, so
+    // that many rows can be inserted using JDBC batch writing
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @TableGenerator(name = "DOWNLOAD_GENERATOR", table = "TOPCAT_SEQUENCE", pkColumnName = "SEQ_NAME",
+            valueColumnName = "SEQ_COUNT", pkColumnValue = "DOWNLOAD", allocationSize = 50)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "DOWNLOAD_GENERATOR")
     @Column(name = "ID")
     private Long id;
 
@@ -85,6 +98,33 @@ public class Download implements Serializable {
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "download", orphanRemoval = true)
     private List<DownloadItem> downloadItems;
 
+    // Optional compact alternative to the DownloadItems, see compactDownloadItems.
+    // The ids of each entity type are encoded by IdArrayCodec.
+    @Lob
+    @Basic(fetch = FetchType.LAZY)
+    @Column(name = "INVESTIGATION_IDS")
+    private byte[] encodedInvestigationIds;
+
+    @Lob
+    @Basic(fetch = FetchType.LAZY)
+    @Column(name = "DATASET_IDS")
+    private byte[] encodedDatasetIds;
+
+    @Lob
+    @Basic(fetch = FetchType.LAZY)
+    @Column(name = "DATAFILE_IDS")
+    private byte[] encodedDatafileIds;
+
+    // Decoded ids, so that each array is only decoded once
+    @Transient
+    private long[] investigationIdArray;
+
+    @Transient
+    private long[] datasetIdArray;
+
+    @Transient
+    private long[] datafileIdArray;
+
     @Column(name = "CREATED_AT", updatable=false)
     @Temporal(TemporalType.TIMESTAMP)
     private Date createdAt;
@@ -285,33 +325,98 @@ public class Download implements Serializable {
         return sb.toString();
     }
 
-        public List<Long> getInvestigationIds(){
-        List<Long> out = new ArrayList<Long>();
-        for (DownloadItem downloadItem : getDownloadItems()) {
-            if (downloadItem.getEntityType() == EntityType.investigation) {
-                out.add(downloadItem.getEntityId());
-            }
-        }
-        return out;
+    /**
+     * @return Whether the ids are stored in compact encoded form rather than as
+     *         DownloadItems
+     */
+    @JsonbTransient
+    @XmlTransient
+    public boolean isCompact() {
+        return encodedInvestigationIds != null;
+    }
+
+    /**
+     * Replace the DownloadItems with compact encoded arrays of the ids of each
+     * entity type, so that no DOWNLOADITEM rows are written for this Download.
+     * The ids remain available from getInvestigationIds etc. but the
+     * DownloadItems will be empty.
+     */
+    public void compactDownloadItems() {
+        long[] investigationIds = getIdArray(EntityType.investigation);
+        long[] datasetIds = getIdArray(EntityType.dataset);
+        long[] datafileIds = getIdArray(EntityType.datafile);
+        encodedInvestigationIds = IdArrayCodec.encode(investigationIds);
+        encodedDatasetIds = IdArrayCodec.encode(datasetIds);
+        encodedDatafileIds = IdArrayCodec.encode(datafileIds);
+        investigationIdArray = datasetIdArray = datafileIdArray = null;
+        downloadItems = new ArrayList<DownloadItem>();
+    }
+
+    @JsonbTransient
+    @XmlTransient
+    public long[] getInvestigationIdArray() {
+        return getIdArray(EntityType.investigation);
+    }
+
+    @JsonbTransient
+    @XmlTransient
+    public long[] getDatasetIdArray() {
+        return getIdArray(EntityType.dataset);
+    }
+
+    @JsonbTransient
+    @XmlTransient
+    public long[] getDatafileIdArray() {
+        return getIdArray(EntityType.datafile);
+    }
+
+    public List<Long> getInvestigationIds(){
+        return toList(getInvestigationIdArray());
     }
 
     public List<Long> getDatasetIds(){
-        List<Long> out = new ArrayList<Long>();
-        for (DownloadItem downloadItem : getDownloadItems()) {
-            if (downloadItem.getEntityType() == EntityType.dataset) {
-                out.add(downloadItem.getEntityId());
-            }
-        }
-        return out;
+        return toList(getDatasetIdArray());
     }
 
     public List<Long> getDatafileIds(){
-        List<Long> out = new ArrayList<Long>();
-        for (DownloadItem downloadItem : getDownloadItems()) {
-            if (downloadItem.getEntityType() == EntityType.datafile) {
-                out.add(downloadItem.getEntityId());
+        return toList(getDatafileIdArray());
+    }
+
+    /**
+     * @param entityType Type of entity to get the ids of
+     * @return ids decoded from the compact form, or read from the DownloadItems
+     */
+    private long[] getIdArray(EntityType entityType) {
+        if (isCompact()) {
+            switch (entityType) {
+                case investigation:
+                    if (investigationIdArray == null) {
+                        investigationIdArray = IdArrayCodec.decode(encodedInvestigationIds);
+                    }
+                    return investigationIdArray;
+                case dataset:
+                    if (datasetIdArray == null) {
+                        datasetIdArray = IdArrayCodec.decode(encodedDatasetIds);
+                    }
+                    return datasetIdArray;
+                default:
+                    if (datafileIdArray == null) {
+                        datafileIdArray = IdArrayCodec.decode(encodedDatafileIds);
+                    }
+                    return datafileIdArray;
             }
         }
+        return getDownloadItems().stream()
+                .filter(downloadItem -> downloadItem.getEntityType() == entityType)
+                .mapToLong(DownloadItem::getEntityId)
+                .toArray();
+    }
+
+    private static List<Long> toList(long[] ids) {
+        List<Long> out = new ArrayList<Long>(ids.length);
+        for (long id : ids) {
+            out.add(id);
+        }
         return out;
     }
 
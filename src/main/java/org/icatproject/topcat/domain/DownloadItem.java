@@ -16,6 +16,7 @@ import jakarta.persistence.ManyToOne;
 import jakarta.persistence.NamedQueries;
 import jakarta.persistence.NamedQuery;
 import jakarta.persistence.Table;
+import jakarta.persistence.TableGenerator;
 import jakarta.xml.bind.annotation.XmlRootElement;
 import jakarta.xml.bind.annotation.XmlTransient;
 
@@ -30,8 +31,12 @@ import jakarta.xml.bind.annotation.XmlTransient;
 @XmlRootElement
 public class DownloadItem implements Serializable {
     private static final long serialVersionUID = 1L;
+    // Ids are allocated from a table rather than by the database on insert, so
+    // that many rows can be inserted using JDBC batch writing
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @TableGenerator(name = "DOWNLOADITEM_GENERATOR", table = "TOPCAT_SEQUENCE", pkColumnName = "SEQ_NAME",
+            valueColumnName = "SEQ_COUNT", pkColumnValue = "DOWNLOADITEM", allocationSize = 100)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "DOWNLOADITEM_GENERATOR")
     @Column(name = "ID")
     private Long id;
 
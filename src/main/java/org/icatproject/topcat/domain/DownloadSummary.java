@@ -0,0 +1,75 @@
+package org.icatproject.topcat.domain;
+
+import java.util.Date;
+
+/**
+ * Read only projection of the fields of a Download needed to decide whether
+ * it requires any work, so that these can be queried without loading the
+ * Download entities or their DownloadItems.
+ */
+public class DownloadSummary {
+    private final Long id;
+    private final DownloadStatus status;
+    private final String transport;
+    private final String facilityName;
+    private final String fileName;
+    private final String preparedId;
+    private final Date createdAt;
+    private final String email;
+    private final Boolean isEmailSent;
+    private final long size;
+
+    public DownloadSummary(Long id, DownloadStatus status, String transport, String facilityName, String fileName,
+            String preparedId, Date createdAt, String email, Boolean isEmailSent, long size) {
+        this.id = id;
+        this.status = status;
+        this.transport = transport;
+        this.facilityName = facilityName;
+        this.fileName = fileName;
+        this.preparedId = preparedId;
+        this.createdAt = createdAt;
+        this.email = email;
+        this.isEmailSent = isEmailSent;
+        this.size = size;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public DownloadStatus getStatus() {
+        return status;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    public String getFacilityName() {
+        return facilityName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getPreparedId() {
+        return preparedId;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Boolean getIsEmailSent() {
+        return isEmailSent;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,76 @@
+package org.icatproject.topcat.domain;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Compact encoding of a set of non-negative ids, used to store the selection
+ * of a Download without a DownloadItem row per entity. The ids are sorted and
+ * written as the count followed by the differences between consecutive ids,
+ * each as a variable length integer of 7 bits per byte. Runs of consecutive
+ * ids, which are common for Datafiles, therefore take one byte per id.
+ */
+public class IdArrayCodec {
+
+    private IdArrayCodec() {
+    }
+
+    /**
+     * @param ids Non-negative ids, in any order
+     * @return The encoded ids
+     * @throws IllegalArgumentException if any id is negative
+     */
+    public static byte[] encode(long[] ids) {
+        long[] sorted = Arrays.copyOf(ids, ids.length);
+        Arrays.sort(sorted);
+        if (sorted.length > 0 && sorted[0] < 0) {
+            throw new IllegalArgumentException("Cannot encode negative id " + sorted[0]);
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(sorted.length + 4);
+        writeVarLong(outputStream, sorted.length);
+        long previous = 0;
+        for (long id : sorted) {
+            writeVarLong(outputStream, id - previous);
+            previous = id;
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * @param encoded Ids encoded by encode, or null
+     * @return The ids in ascending order, or an empty array if encoded is null
+     */
+    public static long[] decode(byte[] encoded) {
+        if (encoded == null) {
+            return new long[0];
+        }
+        int[] position = { 0 };
+        long[] ids = new long[(int) readVarLong(encoded, position)];
+        long previous = 0;
+        for (int i = 0; i < ids.length; i++) {
+            previous += readVarLong(encoded, position);
+            ids[i] = previous;
+        }
+        return ids;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream outputStream, long value) {
+        while ((value & ~0x7FL) != 0) {
+            outputStream.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        outputStream.write((int) value);
+    }
+
+    private static long readVarLong(byte[] encoded, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = encoded[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
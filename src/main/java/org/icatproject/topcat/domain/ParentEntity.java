@@ -11,19 +11,27 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.TableGenerator;
 import jakarta.xml.bind.annotation.XmlRootElement;
 import jakarta.xml.bind.annotation.XmlTransient;
 
 @Entity
-@Table(name = "PARENTENTITY")
+@Table(name = "PARENTENTITY", indexes = {
+        @Index(name = "PARENTENTITY_CARTITEM", columnList = "CARTITEM_ID")
+})
 @XmlRootElement
 public class ParentEntity implements Serializable{
     private static final long serialVersionUID = 1L;
+    // Ids are allocated from a table rather than by the database on insert, so
+    // that many rows can be inserted using JDBC batch writing
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @TableGenerator(name = "PARENTENTITY_GENERATOR", table = "TOPCAT_SEQUENCE", pkColumnName = "SEQ_NAME",
+            valueColumnName = "SEQ_COUNT", pkColumnValue = "PARENTENTITY", allocationSize = 100)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "PARENTENTITY_GENERATOR")
     @Column(name = "ID")
     private Long id;
 
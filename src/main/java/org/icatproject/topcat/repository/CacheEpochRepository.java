@@ -0,0 +1,204 @@
+package org.icatproject.topcat.repository;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jakarta.annotation.Resource;
+import jakarta.ejb.EJB;
+import jakarta.ejb.EJBException;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Schedule;
+import jakarta.ejb.SessionContext;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import org.icatproject.topcat.CacheRegistry;
+import org.icatproject.topcat.domain.CacheEpoch;
+import org.icatproject.topcat.domain.CacheInvalidation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the in-process caches of several nodes sharing one database coherent.
+ * Invalidating a region increments its epoch in the CACHE_EPOCH table, and each
+ * node polls the (small) table to clear any region whose epoch has changed since
+ * it last looked. Removing individual keys from CacheRepository is instead
+ * recorded in the CACHE_INVALIDATION table, so that the other nodes remove only
+ * those keys from their in memory tier.
+ */
+@Singleton
+@LocalBean
+public class CacheEpochRepository {
+	@PersistenceContext(unitName = "topcat")
+	EntityManager em;
+
+	@Resource
+	private SessionContext sessionContext;
+
+	private static final Logger logger = LoggerFactory.getLogger(CacheEpochRepository.class);
+
+	@EJB
+	private CacheRepository cacheRepository;
+
+	// CacheInvalidations are applied if created within this time, which allows
+	// for transactions committing out of order and small differences in clocks
+	private static final long INVALIDATION_WINDOW_MILLIS = 10 * 60 * 1000;
+
+	// CacheInvalidations are deleted once they are older than this
+	private static final long INVALIDATION_LIFETIME_MILLIS = 60 * 60 * 1000;
+
+	// Epoch of each region as of the last poll, null until the first poll
+	private Map<String, Long> seenEpochs = null;
+
+	// ids of the CacheInvalidations within the window as of the last poll, null
+	// until the first poll
+	private Set<Long> seenInvalidations = null;
+
+	/**
+	 * Clear a region on this node, and signal the other nodes to do the same.
+	 *
+	 * @param region Name of the region, one of CacheRegistry.REGIONS. The epoch
+	 *               is incremented even if the region is not registered on this
+	 *               node, so that the other nodes still clear it.
+	 */
+	public void invalidate(String region) {
+		if (incrementEpoch(region) == 0) {
+			// The rows are seeded by the migration, but may not exist on a new
+			// installation. Create it in its own transaction, so that if another node
+			// creates it at the same time only that transaction fails.
+			try {
+				sessionContext.getBusinessObject(CacheEpochRepository.class).createEpoch(region);
+			} catch (EJBException e) {
+				logger.debug("invalidate: epoch for region {} was created by another node", region);
+			}
+			incrementEpoch(region);
+		}
+		Long epoch = em.createQuery("select epoch.epoch from CacheEpoch epoch where epoch.region = :region", Long.class)
+			.setParameter("region", region)
+			.getSingleResult();
+		if (seenEpochs != null) {
+			// The region is cleared below, so the next poll need not clear it again
+			seenEpochs.put(region, epoch);
+		}
+		CacheRegistry.getInstance().invalidate(region);
+	}
+
+	/**
+	 * @param region Name of the region
+	 */
+	@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+	public void createEpoch(String region) {
+		CacheEpoch epoch = new CacheEpoch();
+		epoch.setRegion(region);
+		epoch.setEpoch(0L);
+		em.persist(epoch);
+		em.flush();
+	}
+
+	/**
+	 * @param region Name of the region
+	 * @return The number of rows updated, 0 if the region has no row yet
+	 */
+	private int incrementEpoch(String region) {
+		return em.createQuery("update CacheEpoch epoch set epoch.epoch = epoch.epoch + 1 where epoch.region = :region")
+			.setParameter("region", region)
+			.executeUpdate();
+	}
+
+	/**
+	 * Signal the other nodes to remove a key from their in memory tier of
+	 * CacheRepository. The caller should already have removed it on this node.
+	 *
+	 * @param key Key removed from CacheRepository
+	 */
+	public void invalidateKey(String key) {
+		addInvalidation(new CacheInvalidation(key, false));
+	}
+
+	/**
+	 * Signal the other nodes to remove all keys starting with a prefix from their
+	 * in memory tier of CacheRepository. The caller should already have removed
+	 * them on this node.
+	 *
+	 * @param prefix Prefix of the keys removed from CacheRepository
+	 */
+	public void invalidatePrefix(String prefix) {
+		addInvalidation(new CacheInvalidation(prefix, true));
+	}
+
+	private void addInvalidation(CacheInvalidation invalidation) {
+		em.persist(invalidation);
+		em.flush();
+		if (seenInvalidations != null) {
+			seenInvalidations.add(invalidation.getId());
+		}
+	}
+
+	/**
+	 * Clear every registered region on all nodes.
+	 */
+	public void invalidateAll() {
+		for (String region : CacheRegistry.REGIONS) {
+			invalidate(region);
+		}
+	}
+
+	@Schedule(hour="*", minute="*", second="*/10")
+	public void poll() {
+		try {
+			TypedQuery<CacheEpoch> query = em.createQuery("select epoch from CacheEpoch epoch", CacheEpoch.class);
+			List<CacheEpoch> epochs = query.getResultList();
+			Map<String, Long> latestEpochs = new HashMap<>();
+			for (CacheEpoch epoch : epochs) {
+				latestEpochs.put(epoch.getRegion(), epoch.getEpoch());
+			}
+			if (seenEpochs != null) {
+				for (Map.Entry<String, Long> entry : latestEpochs.entrySet()) {
+					if (!entry.getValue().equals(seenEpochs.get(entry.getKey()))) {
+						logger.info("poll: cache region {} was invalidated by another node", entry.getKey());
+						CacheRegistry.getInstance().invalidate(entry.getKey());
+					}
+				}
+			}
+			seenEpochs = latestEpochs;
+			pollInvalidations();
+		} catch (RuntimeException e) {
+			// Catch exceptions to prevent the EJBTimerService from crashing
+			logger.error("Unhandled exception in poll()", e);
+		}
+	}
+
+	/**
+	 * Apply the CacheInvalidations created by other nodes since the last poll,
+	 * and delete any which are no longer needed.
+	 */
+	private void pollInvalidations() {
+		long now = new Date().getTime();
+		TypedQuery<Object[]> query = em.createQuery("select invalidation.id, invalidation.key, invalidation.isPrefix"
+				+ " from CacheInvalidation invalidation where invalidation.createdAt > :since", Object[].class);
+		query.setParameter("since", new Date(now - INVALIDATION_WINDOW_MILLIS));
+		Set<Long> latestInvalidations = new HashSet<>();
+		for (Object[] invalidation : query.getResultList()) {
+			Long id = (Long) invalidation[0];
+			latestInvalidations.add(id);
+			if (seenInvalidations != null && !seenInvalidations.contains(id)) {
+				logger.debug("poll: cache key {} was invalidated by another node", invalidation[1]);
+				cacheRepository.removeFromMemory((String) invalidation[1], (Boolean) invalidation[2]);
+			}
+		}
+		seenInvalidations = latestInvalidations;
+
+		em.createQuery("delete from CacheInvalidation invalidation where invalidation.createdAt < :before")
+			.setParameter("before", new Date(now - INVALIDATION_LIFETIME_MILLIS))
+			.executeUpdate();
+	}
+}
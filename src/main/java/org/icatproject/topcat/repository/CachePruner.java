@@ -0,0 +1,127 @@
+package org.icatproject.topcat.repository;
+
+import java.util.Date;
+import java.util.List;
+
+import jakarta.ejb.EJB;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Schedule;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import org.icatproject.topcat.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prunes the CACHE table. This is a separate bean from CacheRepository so that
+ * a long prune does not hold its lock, and only each batch delete briefly
+ * competes with reads and writes of the cache.
+ */
+@LocalBean
+@Singleton
+public class CachePruner {
+	@PersistenceContext(unitName = "topcat")
+	EntityManager em;
+
+	@EJB
+	private CacheRepository cacheRepository;
+
+	private static final Logger logger = LoggerFactory.getLogger(CachePruner.class);
+
+	/**
+	 * Removes entries which have not been accessed within cache.prune.maxIdleSeconds
+	 * (if set), and then the least recently accessed entries beyond maxCacheSize.
+	 * Rows are deleted with bulk statements in batches of cache.prune.batchSize,
+	 * each in its own transaction so that locks are only held briefly.
+	 */
+	@Schedule(hour="*", minute="0")
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	public void prune(){
+		try {
+			cacheRepository.flushAccessTimes();
+
+			Properties properties = Properties.getInstance();
+			int maxCacheSize = Integer.valueOf(properties.getProperty("maxCacheSize", "10000"));
+			long maxIdleSeconds = Long.valueOf(properties.getProperty("cache.prune.maxIdleSeconds", "0"));
+			int batchSize = Integer.valueOf(properties.getProperty("cache.prune.batchSize", "1000"));
+
+			int deleted = 0;
+			if (maxIdleSeconds > 0) {
+				Date cutoff = new Date(new Date().getTime() - maxIdleSeconds * 1000);
+				deleted += pruneOlderThan(cutoff, batchSize);
+			}
+
+			// flushAccessTimes gives many keys the same lastAccessTime, so order by key
+			// as well to find exactly the entries beyond maxCacheSize
+			TypedQuery<Object[]> query = em.createQuery("select cache.lastAccessTime, cache.key from Cache cache"
+					+ " order by cache.lastAccessTime desc, cache.key desc", Object[].class);
+			query.setFirstResult(maxCacheSize);
+			query.setMaxResults(1);
+			List<Object[]> cutoffs = query.getResultList();
+			if (cutoffs.size() > 0) {
+				deleted += pruneFrom((Date) cutoffs.get(0)[0], (String) cutoffs.get(0)[1], batchSize);
+			}
+
+			if (deleted > 0) {
+				logger.info("prune: removed {} cached values", deleted);
+			}
+		} catch (RuntimeException e) {
+			// Catch exceptions to prevent the EJBTimerService from crashing
+			logger.error("Unhandled exception in prune()", e);
+		}
+	}
+
+	/**
+	 * @param cutoff    Entries last accessed at or before this time are removed
+	 * @param batchSize Maximum number of entries to remove in each transaction
+	 * @return The number of entries removed
+	 */
+	private int pruneOlderThan(Date cutoff, int batchSize) {
+		TypedQuery<String> query = em.createQuery(
+				"select cache.key from Cache cache where cache.lastAccessTime <= :cutoff", String.class);
+		query.setParameter("cutoff", cutoff);
+		return deleteInBatches(query, batchSize);
+	}
+
+	/**
+	 * @param cutoffTime   lastAccessTime of the first entry to remove
+	 * @param cutoffKey    key of the first entry to remove
+	 * @param batchSize    Maximum number of entries to remove in each transaction
+	 * @return The number of entries removed, which are the cutoff entry and all
+	 *         those after it in (lastAccessTime desc, key desc) order
+	 */
+	private int pruneFrom(Date cutoffTime, String cutoffKey, int batchSize) {
+		TypedQuery<String> query = em.createQuery("select cache.key from Cache cache"
+				+ " where cache.lastAccessTime < :cutoffTime"
+				+ " or (cache.lastAccessTime = :cutoffTime and cache.key <= :cutoffKey)", String.class);
+		query.setParameter("cutoffTime", cutoffTime);
+		query.setParameter("cutoffKey", cutoffKey);
+		return deleteInBatches(query, batchSize);
+	}
+
+	/**
+	 * @param query     Query for the keys of the entries to remove
+	 * @param batchSize Maximum number of entries to remove in each transaction
+	 * @return The number of entries removed
+	 */
+	private int deleteInBatches(TypedQuery<String> query, int batchSize) {
+		query.setMaxResults(batchSize);
+		int deleted = 0;
+		while (true) {
+			List<String> keys = query.getResultList();
+			if (keys.isEmpty()) {
+				return deleted;
+			}
+			deleted += cacheRepository.deleteBatch(keys);
+			if (keys.size() < batchSize) {
+				return deleted;
+			}
+		}
+	}
+}
@@ -1,17 +1,25 @@
 package org.icatproject.topcat.repository;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.ejb.LocalBean;
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
 import jakarta.ejb.Singleton;
 import jakarta.ejb.Stateless;
 import jakarta.ejb.Schedule;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.TypedQuery;
 
 import org.icatproject.topcat.domain.Cache;
+import org.icatproject.topcat.CacheRegistry;
 import org.icatproject.topcat.Properties;
+import org.icatproject.topcat.SegmentedLruCache;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +29,13 @@ import org.icatproject.topcat.IcatClient;
 import java.io.Serializable;
 
 
+/**
+ * Two tier cache of Serializable values, held in the CACHE table and in memory.
+ * Methods which only read values, or only update the (thread safe) in memory
+ * tier and access times, take the READ lock so that they do not wait for each
+ * other. Writing values takes the default WRITE lock. Pruning is done by
+ * CachePruner, so that no lock is held for the whole of its run.
+ */
 @LocalBean
 @Singleton
 public class CacheRepository {
@@ -29,32 +44,62 @@ public class CacheRepository {
 
 	private static final Logger logger = LoggerFactory.getLogger(CacheRepository.class);
 
+	/**
+	 * Value held in the in memory tier, along with the creation time of the
+	 * corresponding database row so that lifetimes can be checked without a query.
+	 */
+	private static class MemoryEntry {
+		private final Object value;
+		private final long creationTime;
+
+		private MemoryEntry(Object value, long creationTime) {
+			this.value = value;
+			this.creationTime = creationTime;
+		}
+	}
+
+	// Maximum number of keys bound to the "in" clause of a single query
+	private static final int KEY_BATCH_SIZE = 500;
+
+	private SegmentedLruCache<String, MemoryEntry> memory = new SegmentedLruCache<>(
+			Integer.valueOf(Properties.getInstance().getProperty("cache.memory.maxSize", "10000")));
+
+	// Keys which have been read since access times were last written to the database
+	private Set<String> pendingAccessKeys = ConcurrentHashMap.newKeySet();
+
+	@PostConstruct
+	private void init() {
+		CacheRegistry.getInstance().register("cache", memory::clear);
+	}
+
+	@Lock(LockType.READ)
 	public Object get(String key, Long seconds){
-		Cache cache = getCache(key);
-		if(cache != null){
-			boolean tooOld = false;
-			if( seconds > 0 ) {
-				// seconds == 0 => immortal (unless pruned through lack of interest)
-				// Only do time calcs if we need to.
-				long now = new Date().getTime();
-				long creation = cache.getCreationTime().getTime();
-				tooOld = creation + (seconds * 1000) < now;
-			}
-			if( ! tooOld ){
-				cache.setLastAccessTime(new Date());
-				em.persist(cache);
-				em.flush();
-				return cache.getValue();
-			} else {
-				em.remove(cache);
-				em.flush();
+		MemoryEntry entry = memory.get(key);
+		if (entry == null) {
+			entry = getMemoryEntry(key);
+			if (entry == null) {
 				return null;
 			}
+			memory.put(key, entry);
+		}
+
+		boolean tooOld = false;
+		if( seconds > 0 ) {
+			// seconds == 0 => immortal (unless pruned through lack of interest)
+			// Only do time calcs if we need to.
+			long now = new Date().getTime();
+			tooOld = entry.creationTime + (seconds * 1000) < now;
+		}
+		if( ! tooOld ){
+			pendingAccessKeys.add(key);
+			return entry.value;
 		} else {
+			remove(key);
 			return null;
 		}
 	}
 
+	@Lock(LockType.READ)
 	public Object get(String key){
 		return this.get(key,0L);
 	}
@@ -68,9 +113,12 @@ public class CacheRepository {
 		cache.setValue(value);
 		em.persist(cache);
 		em.flush();
+		memory.put(key, new MemoryEntry(value, cache.getCreationTime().getTime()));
 	}
 	
 	public void remove(String key) {
+		memory.remove(key);
+		pendingAccessKeys.remove(key);
 		Cache cache = getCache(key);
 		if( cache != null ){
 			em.remove(cache);
@@ -78,34 +126,158 @@ public class CacheRepository {
 		}
 	}
 
-	@Schedule(hour="*", minute="0")
-	public void prune(){
+	/**
+	 * Remove all entries whose key starts with the prefix, from both the database
+	 * (with a single bulk delete against the primary key index) and memory.
+	 *
+	 * @param prefix Prefix of the keys to remove
+	 * @return The number of rows deleted
+	 */
+	public int removeByPrefix(String prefix) {
+		memory.removeKeysIf(key -> key.startsWith(prefix));
+		pendingAccessKeys.removeIf(key -> key.startsWith(prefix));
+		return em.createQuery("delete from Cache cache where cache.key like :prefix escape '!'")
+			.setParameter("prefix", escapeLike(prefix) + "%")
+			.executeUpdate();
+	}
+
+	/**
+	 * Remove entries from the in memory tier only, after another node has removed
+	 * them from the database.
+	 *
+	 * @param key      Key to remove, or the prefix of the keys to remove
+	 * @param isPrefix Whether key is a prefix
+	 */
+	@Lock(LockType.READ)
+	public void removeFromMemory(String key, boolean isPrefix) {
+		if (isPrefix) {
+			memory.removeKeysIf(memoryKey -> memoryKey.startsWith(key));
+			pendingAccessKeys.removeIf(pendingKey -> pendingKey.startsWith(key));
+		} else {
+			memory.remove(key);
+			pendingAccessKeys.remove(key);
+		}
+	}
+
+	/**
+	 * @param prefix        Only keys starting with this are returned
+	 * @param since         Only entries accessed after this time are returned
+	 * @param createdBefore Only entries created before this time are returned
+	 * @param maxResults    Maximum number of keys to return
+	 * @return Keys of matching entries, most recently accessed first
+	 */
+	@Lock(LockType.READ)
+	public List<String> getKeysAccessedSince(String prefix, Date since, Date createdBefore, int maxResults) {
+		flushAccessTimes();
+		TypedQuery<String> query = em.createQuery("select cache.key from Cache cache where cache.key like :prefix escape '!'"
+				+ " and cache.lastAccessTime > :since and cache.creationTime < :createdBefore"
+				+ " order by cache.lastAccessTime desc", String.class);
+		query.setParameter("prefix", escapeLike(prefix) + "%");
+		query.setParameter("since", since);
+		query.setParameter("createdBefore", createdBefore);
+		query.setMaxResults(maxResults);
+		return query.getResultList();
+	}
+
+	/**
+	 * Find which keys have an entry in the database, without reading the values
+	 * or counting as an access to them.
+	 *
+	 * @param keys Keys to look for
+	 * @return The subset of keys which have an entry, whether or not it has
+	 *         outlived its lifetime
+	 */
+	@Lock(LockType.READ)
+	public Set<String> getExistingKeys(Collection<String> keys) {
+		List<String> keyList = new ArrayList<>(keys);
+		Set<String> existingKeys = new HashSet<>();
+		for (int i = 0; i < keyList.size(); i += KEY_BATCH_SIZE) {
+			List<String> batch = keyList.subList(i, Math.min(i + KEY_BATCH_SIZE, keyList.size()));
+			existingKeys.addAll(em.createQuery("select cache.key from Cache cache where cache.key in :keys", String.class)
+				.setParameter("keys", batch)
+				.getResultList());
+		}
+		return existingKeys;
+	}
+
+	/**
+	 * Reads are served from memory where possible, so rather than writing the
+	 * lastAccessTime on every get, the keys which have been read are recorded and
+	 * written back to the database in batches.
+	 */
+	@Schedule(hour="*", minute="*", second="*/30")
+	@Lock(LockType.READ)
+	public void flushAccessTimes(){
 		try {
-			Properties properties = Properties.getInstance();
-			Integer maxCacheSize = Integer.valueOf(properties.getProperty("maxCacheSize", "10000"));
-
-			TypedQuery<Cache> query = em.createQuery("select cache from Cache cache order by cache.lastAccessTime desc", Cache.class);
-			query.setMaxResults(maxCacheSize);
-
-			List<Cache> caches;
-			int page = 1;
-			while(true){
-				query.setFirstResult(maxCacheSize * page);
-				caches = query.getResultList();
-				if(caches.size() > 0){
-					for(Cache cache : caches){
-						em.remove(cache);
-					}
-				} else {
-					break;
-				}
+			if (pendingAccessKeys.isEmpty()) {
+				return;
+			}
+			// Remove the keys one at a time, so that a key read concurrently is
+			// either written now or left for the next flush
+			List<String> keys = new ArrayList<>();
+			for (Iterator<String> iterator = pendingAccessKeys.iterator(); iterator.hasNext();) {
+				keys.add(iterator.next());
+				iterator.remove();
+			}
+			Date now = new Date();
+			for (int i = 0; i < keys.size(); i += KEY_BATCH_SIZE) {
+				List<String> batch = keys.subList(i, Math.min(i + KEY_BATCH_SIZE, keys.size()));
+				em.createQuery("update Cache cache set cache.lastAccessTime = :now where cache.key in :keys")
+					.setParameter("now", now)
+					.setParameter("keys", batch)
+					.executeUpdate();
 			}
-
-			em.flush();
 		} catch (RuntimeException e) {
 			// Catch exceptions to prevent the EJBTimerService from crashing
-			logger.error("Unhandled exception in prune()", e);
+			logger.error("Unhandled exception in flushAccessTimes()", e);
+		}
+	}
+
+	/**
+	 * @param keys Keys of the entries to remove
+	 * @return The number of rows deleted
+	 */
+	@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+	public int deleteBatch(List<String> keys) {
+		for (String key : keys) {
+			memory.remove(key);
+			pendingAccessKeys.remove(key);
 		}
+		return em.createQuery("delete from Cache cache where cache.key in :keys")
+			.setParameter("keys", keys)
+			.executeUpdate();
+	}
+
+	/**
+	 * Read the value and creation time for a key. Long values are read directly,
+	 * only loading the serialised value if needed.
+	 */
+	private MemoryEntry getMemoryEntry(String key) {
+		TypedQuery<Object[]> query = em.createQuery(
+				"select cache.longValue, cache.creationTime from Cache cache where cache.key = :key", Object[].class);
+		query.setParameter("key", key);
+		List<Object[]> resultList = query.getResultList();
+		if (resultList.isEmpty()) {
+			return null;
+		}
+		Object value = resultList.get(0)[0];
+		Date creationTime = (Date) resultList.get(0)[1];
+		if (value == null) {
+			Cache cache = getCache(key);
+			if (cache == null) {
+				return null;
+			}
+			value = cache.getValue();
+		}
+		return new MemoryEntry(value, creationTime.getTime());
+	}
+
+	/**
+	 * @param value String to match literally in a LIKE pattern
+	 * @return The value with LIKE wildcards escaped using '!'
+	 */
+	private static String escapeLike(String value) {
+		return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
 	}
 
 	private Cache getCache(String key){
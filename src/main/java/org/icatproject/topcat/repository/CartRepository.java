@@ -1,16 +1,20 @@
 package org.icatproject.topcat.repository;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import jakarta.ejb.LocalBean;
 import jakarta.ejb.Singleton;
 import jakarta.ejb.Stateless;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
 import jakarta.persistence.TypedQuery;
 import jakarta.persistence.NoResultException;
 
@@ -27,6 +31,9 @@ public class CartRepository {
     @PersistenceContext(unitName="topcat")
     EntityManager em;
 
+    // Limit on the number of ids in a single IN clause, which Oracle caps at 1000
+    private static final int IN_CLAUSE_SIZE = 1000;
+
     public Cart getCart(String userName, String facilityName){
         TypedQuery<Cart> query = em.createQuery("select cart from Cart cart where cart.userName = :userName and cart.facilityName = :facilityName", Cart.class)
             .setParameter("userName", userName)
@@ -38,4 +45,217 @@ public class CartRepository {
         }
     }
 
+    /**
+     * @param cart       Cart to search
+     * @param parentType Type of the parent entities
+     * @param parentIds  ICAT ids of the parent entities
+     * @return ids of the CartItems in the cart which have any of the parents
+     */
+    public Set<Long> getCartItemIdsWithParents(Cart cart, EntityType parentType, List<Long> parentIds){
+        Set<Long> cartItemIds = new HashSet<Long>();
+        TypedQuery<Long> query = em.createQuery("select parentEntity.cartItem.id from ParentEntity parentEntity"
+                + " where parentEntity.cartItem.cart = :cart and parentEntity.entityType = :entityType"
+                + " and parentEntity.entityId in :entityIds", Long.class)
+            .setParameter("cart", cart)
+            .setParameter("entityType", parentType);
+        for (int i = 0; i < parentIds.size(); i += IN_CLAUSE_SIZE) {
+            query.setParameter("entityIds", parentIds.subList(i, Math.min(i + IN_CLAUSE_SIZE, parentIds.size())));
+            cartItemIds.addAll(query.getResultList());
+        }
+        return cartItemIds;
+    }
+
+    /**
+     * @param cart Cart to count the items of
+     * @return The number of CartItems in the cart, without loading them
+     */
+    public long getCartItemCount(Cart cart){
+        return em.createQuery("select count(cartItem) from CartItem cartItem where cartItem.cart = :cart", Long.class)
+            .setParameter("cart", cart)
+            .getSingleResult();
+    }
+
+    /**
+     * Get a page of CartItems using keyset pagination on the id.
+     *
+     * @param cart    Cart to get the items of
+     * @param afterId Only CartItems with an id greater than this are returned
+     * @param limit   Maximum number of CartItems to return
+     * @return CartItems ordered by id
+     */
+    public List<CartItem> getCartItems(Cart cart, long afterId, int limit){
+        return em.createQuery("select cartItem from CartItem cartItem where cartItem.cart = :cart"
+                + " and cartItem.id > :afterId order by cartItem.id", CartItem.class)
+            .setParameter("cart", cart)
+            .setParameter("afterId", afterId)
+            .setMaxResults(limit)
+            .getResultList();
+    }
+
+    /**
+     * @param cartItems CartItems to get the parents of
+     * @return Map from CartItem id to its ParentEntities, fetched with a single
+     *         query per 1000 CartItems
+     */
+    public Map<Long, List<ParentEntity>> getParentEntities(List<CartItem> cartItems){
+        Map<Long, List<ParentEntity>> parentEntities = new HashMap<Long, List<ParentEntity>>();
+        List<Long> cartItemIds = new ArrayList<Long>();
+        for (CartItem cartItem : cartItems) {
+            cartItemIds.add(cartItem.getId());
+        }
+        TypedQuery<ParentEntity> query = em.createQuery("select parentEntity from ParentEntity parentEntity"
+                + " where parentEntity.cartItem.id in :ids order by parentEntity.id", ParentEntity.class);
+        for (int i = 0; i < cartItemIds.size(); i += IN_CLAUSE_SIZE) {
+            query.setParameter("ids", cartItemIds.subList(i, Math.min(i + IN_CLAUSE_SIZE, cartItemIds.size())));
+            for (ParentEntity parentEntity : query.getResultList()) {
+                Long cartItemId = parentEntity.getCartItem().getId();
+                parentEntities.computeIfAbsent(cartItemId, k -> new ArrayList<ParentEntity>()).add(parentEntity);
+            }
+        }
+        return parentEntities;
+    }
+
+    /**
+     * Delete every CartItem in the cart with bulk statements.
+     *
+     * @param cart Cart to empty
+     * @return The number of CartItems deleted
+     */
+    public int deleteAllCartItems(Cart cart){
+        em.createQuery("delete from ParentEntity parentEntity where parentEntity.cartItem.id in"
+                + " (select cartItem.id from CartItem cartItem where cartItem.cart = :cart)")
+            .setParameter("cart", cart)
+            .executeUpdate();
+        return em.createQuery("delete from CartItem cartItem where cartItem.cart = :cart")
+            .setParameter("cart", cart)
+            .executeUpdate();
+    }
+
+    /**
+     * Delete the CartItems for the given entities with bulk statements, using the
+     * index on (CART_ID, ENTITY_TYPE, ENTITY_ID).
+     *
+     * @param cart       Cart to delete from
+     * @param entityType Type of the entities
+     * @param entityIds  ICAT ids of the entities
+     * @return ids of the CartItems deleted
+     */
+    public List<Long> deleteCartItems(Cart cart, EntityType entityType, List<Long> entityIds){
+        String condition = "cartItem.cart = :cart and cartItem.entityType = :entityType and cartItem.entityId in :ids";
+        return deleteCartItems(cart, condition, entityType, entityIds);
+    }
+
+    /**
+     * Delete CartItems by their own ids with bulk statements.
+     *
+     * @param cart        Cart to delete from
+     * @param cartItemIds ids of the CartItems
+     * @return ids of the CartItems deleted, excluding any not in the cart
+     */
+    public List<Long> deleteCartItemsById(Cart cart, List<Long> cartItemIds){
+        return deleteCartItems(cart, "cartItem.cart = :cart and cartItem.id in :ids", null, cartItemIds);
+    }
+
+    private List<Long> deleteCartItems(Cart cart, String condition, EntityType entityType, List<Long> ids){
+        // The matching ids are read first so that the removals can be recorded
+        // as CartChanges, then both deletes use the primary key
+        TypedQuery<Long> idQuery = em.createQuery("select cartItem.id from CartItem cartItem where " + condition, Long.class);
+        Query parentQuery = em.createQuery("delete from ParentEntity parentEntity where parentEntity.cartItem.id in :cartItemIds");
+        Query cartItemQuery = em.createQuery("delete from CartItem cartItem where cartItem.id in :cartItemIds");
+        List<Long> deletedIds = new ArrayList<Long>();
+        for (int i = 0; i < ids.size(); i += IN_CLAUSE_SIZE) {
+            idQuery.setParameter("cart", cart).setParameter("ids", ids.subList(i, Math.min(i + IN_CLAUSE_SIZE, ids.size())));
+            if (entityType != null) {
+                idQuery.setParameter("entityType", entityType);
+            }
+            List<Long> cartItemIds = idQuery.getResultList();
+            if (cartItemIds.isEmpty()) {
+                continue;
+            }
+            parentQuery.setParameter("cartItemIds", cartItemIds).executeUpdate();
+            cartItemQuery.setParameter("cartItemIds", cartItemIds).executeUpdate();
+            deletedIds.addAll(cartItemIds);
+        }
+        return deletedIds;
+    }
+
+    /**
+     * Increment the version of the cart and record the CartItems added and
+     * removed at the new version. CartChanges older than maxVersions versions
+     * are deleted. Nothing is recorded if there are no changes.
+     *
+     * @param cart        Cart which was changed
+     * @param addedIds    ids of the CartItems added
+     * @param removedIds  ids of the CartItems removed
+     * @param maxVersions Number of versions to keep CartChanges for
+     */
+    public void recordChanges(Cart cart, Collection<Long> addedIds, Collection<Long> removedIds, long maxVersions){
+        if (addedIds.isEmpty() && removedIds.isEmpty()) {
+            return;
+        }
+        // Increment the version in the database rather than in memory, so that the
+        // row stays locked until commit and concurrent changes get distinct versions
+        em.createQuery("update Cart cart set cart.version = cart.version + 1 where cart.id = :id")
+            .setParameter("id", cart.getId())
+            .executeUpdate();
+        long version = em.createQuery("select cart.version from Cart cart where cart.id = :id", Long.class)
+            .setParameter("id", cart.getId())
+            .getSingleResult();
+        cart.setVersion(version);
+        for (Long cartItemId : removedIds) {
+            em.persist(new CartChange(cart, version, CartChangeType.REMOVED, cartItemId));
+        }
+        for (Long cartItemId : addedIds) {
+            em.persist(new CartChange(cart, version, CartChangeType.ADDED, cartItemId));
+        }
+        if (version > maxVersions) {
+            em.createQuery("delete from CartChange cartChange where cartChange.cart = :cart and cartChange.version <= :version")
+                .setParameter("cart", cart)
+                .setParameter("version", version - maxVersions)
+                .executeUpdate();
+        }
+    }
+
+    /**
+     * @param cart         Cart to get the changes of
+     * @param sinceVersion Only CartChanges at a later version are returned
+     * @return CartChanges in the order they were made
+     */
+    public List<CartChange> getCartChanges(Cart cart, long sinceVersion){
+        return em.createQuery("select cartChange from CartChange cartChange where cartChange.cart = :cart"
+                + " and cartChange.version > :version order by cartChange.version, cartChange.id", CartChange.class)
+            .setParameter("cart", cart)
+            .setParameter("version", sinceVersion)
+            .getResultList();
+    }
+
+    /**
+     * Delete all the CartChanges of a cart, which must be done before the cart
+     * itself is removed.
+     *
+     * @param cart Cart to delete the changes of
+     */
+    public void deleteCartChanges(Cart cart){
+        em.createQuery("delete from CartChange cartChange where cartChange.cart = :cart")
+            .setParameter("cart", cart)
+            .executeUpdate();
+    }
+
+    /**
+     * @param cart        Cart to get the items of
+     * @param cartItemIds ids of the CartItems
+     * @return CartItems ordered by id, excluding any not in the cart
+     */
+    public List<CartItem> getCartItemsById(Cart cart, List<Long> cartItemIds){
+        List<CartItem> cartItems = new ArrayList<CartItem>();
+        TypedQuery<CartItem> query = em.createQuery("select cartItem from CartItem cartItem where cartItem.cart = :cart"
+                + " and cartItem.id in :ids order by cartItem.id", CartItem.class)
+            .setParameter("cart", cart);
+        for (int i = 0; i < cartItemIds.size(); i += IN_CLAUSE_SIZE) {
+            query.setParameter("ids", cartItemIds.subList(i, Math.min(i + IN_CLAUSE_SIZE, cartItemIds.size())));
+            cartItems.addAll(query.getResultList());
+        }
+        return cartItems;
+    }
+
 }
@@ -5,10 +5,12 @@ import java.util.Date;
 import java.text.SimpleDateFormat;
 import java.text.DateFormat;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Locale;
+import java.util.Set;
 import java.text.ParseException;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
@@ -22,6 +24,7 @@ import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.TypedQuery;
 
 import org.icatproject.topcat.domain.Download;
+import org.icatproject.topcat.domain.DownloadItem;
 import org.icatproject.topcat.domain.DownloadStatus;
 import org.icatproject.topcat.exceptions.BadRequestException;
 import org.icatproject.topcat.exceptions.NotFoundException;
@@ -36,6 +39,9 @@ public class DownloadRepository {
 
 	private static final Logger logger = LoggerFactory.getLogger(DownloadRepository.class);
 
+	// Limit on the number of ids in a single IN clause, which Oracle caps at 1000
+	private static final int IN_CLAUSE_SIZE = 1000;
+
 	public List<Download> getDownloads(Map<String, Object> params) throws ParseException, BadRequestException {
 		List<Download> downloads = new ArrayList<Download>();
 
@@ -101,35 +107,180 @@ public class DownloadRepository {
 	}
 
 	/**
-	 * Get the statuses from downloadIds.
+	 * Get the statuses from downloadIds. Only the ids and statuses are selected,
+	 * so no Download entities are loaded.
 	 * 
 	 * @param userName    The formatted userName corresponding to the sessionId that
 	 *                    submitted the request
 	 * @param downloadIds List of ids to check
-	 * @return List of DownloadStatus for each downloadId
+	 * @return List of DownloadStatus for each downloadId, in the same order
 	 * @throws NotFoundException If less Downloads are found than ids provided. In
 	 *                           practice, this either means the Download(s) do not
 	 *                           exist or they did not belong to the user submitting
 	 *                           the request.
 	 */
 	public List<DownloadStatus> getStatuses(String userName, List<Long> downloadIds) throws NotFoundException {
-		List<String> stringDownloadIds = new ArrayList<>();
-		for (Long downloadId : downloadIds) {
-			stringDownloadIds.add(downloadId.toString());
+		String queryString = "SELECT download.id, download.status FROM Download download"
+				+ " WHERE download.userName = :userName AND download.id IN :downloadIds";
+		TypedQuery<Object[]> query = em.createQuery(queryString, Object[].class)
+				.setParameter("userName", userName)
+				.setParameter("downloadIds", downloadIds);
+		Map<Long, DownloadStatus> statuses = new HashMap<>();
+		for (Object[] row : query.getResultList()) {
+			statuses.put((Long) row[0], (DownloadStatus) row[1]);
 		}
-		String joinedDownloadIds = String.join(",", stringDownloadIds);
-		String queryString = "SELECT download.status FROM Download download WHERE download.userName = '" + userName;
-		queryString += "' AND download.id IN (" + joinedDownloadIds + ")";
-		TypedQuery<DownloadStatus> query = em.createQuery(queryString, DownloadStatus.class);
-		List<DownloadStatus> resultList = query.getResultList();
-
-		if (resultList.size() < downloadIds.size()) {
-			throw new NotFoundException("Could not find a Download for each provided id");
+
+		List<DownloadStatus> resultList = new ArrayList<>();
+		for (Long downloadId : downloadIds) {
+			DownloadStatus status = statuses.get(downloadId);
+			if (status == null) {
+				throw new NotFoundException("Could not find a Download for each provided id");
+			}
+			resultList.add(status);
 		}
 
 		return resultList;
 	}
 
+	/**
+	 * Get a page of Downloads using keyset pagination on (createdAt, id), newest
+	 * first, so that the cost of each page does not depend on how many Downloads
+	 * precede it. The DownloadItems are not loaded.
+	 * 
+	 * @param userName       userName the Downloads must belong to, or null for all
+	 *                       users
+	 * @param queryOffset    Optional JPQL condition on download, which may start
+	 *                       with "WHERE" but must not contain ORDER BY or LIMIT
+	 * @param afterId        id of the last Download of the previous page, or null
+	 *                       for the first page
+	 * @param limit          Maximum number of Downloads to return
+	 * @return Downloads ordered by createdAt and then id, descending
+	 * @throws BadRequestException if queryOffset is not allowed
+	 */
+	public List<Download> getDownloadsPage(String userName, String queryOffset, Long afterId, int limit)
+			throws BadRequestException {
+		List<String> conditions = getConditions(userName, queryOffset);
+		if (afterId != null) {
+			// Compare with the stored createdAt, so the result does not depend on the
+			// precision with which the database stores timestamps
+			String afterCreatedAt = "(SELECT previous.createdAt FROM Download previous WHERE previous.id = :afterId)";
+			conditions.add("(download.createdAt < " + afterCreatedAt + " OR (download.createdAt = "
+					+ afterCreatedAt + " AND download.id < :afterId))");
+		}
+		String queryString = "SELECT download FROM Download download" + getWhereClause(conditions)
+				+ " ORDER BY download.createdAt DESC, download.id DESC";
+		logger.trace(queryString);
+
+		TypedQuery<Download> query = em.createQuery(queryString, Download.class);
+		if (userName != null) {
+			query.setParameter("userName", userName);
+		}
+		if (afterId != null) {
+			query.setParameter("afterId", afterId);
+		}
+		return query.setMaxResults(limit).getResultList();
+	}
+
+	/**
+	 * @param userName    userName the Downloads must belong to, or null for all
+	 *                    users
+	 * @param queryOffset Optional JPQL condition on download, as for
+	 *                    getDownloadsPage
+	 * @return The number of matching Downloads, without loading any
+	 * @throws BadRequestException if queryOffset is not allowed
+	 */
+	public long countDownloads(String userName, String queryOffset) throws BadRequestException {
+		String queryString = "SELECT COUNT(download) FROM Download download"
+				+ getWhereClause(getConditions(userName, queryOffset));
+		TypedQuery<Long> query = em.createQuery(queryString, Long.class);
+		if (userName != null) {
+			query.setParameter("userName", userName);
+		}
+		return query.getSingleResult();
+	}
+
+	/**
+	 * Get the entities selected by each Download with one query per 1000
+	 * Downloads, rather than one per Download. Downloads stored in compact form
+	 * have no DownloadItems, so are not included.
+	 * 
+	 * @param downloadIds ids of the Downloads
+	 * @return Map from Download id to its DownloadItems
+	 */
+	public Map<Long, List<DownloadItem>> getDownloadItems(List<Long> downloadIds) {
+		Map<Long, List<DownloadItem>> downloadItems = new HashMap<>();
+		TypedQuery<DownloadItem> query = em.createQuery("SELECT item FROM DownloadItem item"
+				+ " WHERE item.download.id IN :ids ORDER BY item.id", DownloadItem.class);
+		for (List<Long> chunk : chunk(downloadIds)) {
+			for (DownloadItem downloadItem : query.setParameter("ids", chunk).getResultList()) {
+				Long downloadId = downloadItem.getDownload().getId();
+				downloadItems.computeIfAbsent(downloadId, k -> new ArrayList<>()).add(downloadItem);
+			}
+		}
+		return downloadItems;
+	}
+
+	/**
+	 * @param downloadIds ids of the Downloads
+	 * @return Map from Download id to its number of DownloadItems. Downloads
+	 *         without any, including those stored in compact form, are not
+	 *         included.
+	 */
+	public Map<Long, Long> getDownloadItemCounts(List<Long> downloadIds) {
+		Map<Long, Long> counts = new HashMap<>();
+		TypedQuery<Object[]> query = em.createQuery("SELECT item.download.id, COUNT(item) FROM DownloadItem item"
+				+ " WHERE item.download.id IN :ids GROUP BY item.download.id", Object[].class);
+		for (List<Long> chunk : chunk(downloadIds)) {
+			for (Object[] row : query.setParameter("ids", chunk).getResultList()) {
+				counts.put((Long) row[0], (Long) row[1]);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @param downloadIds ids of the Downloads
+	 * @return ids of those Downloads which are stored in compact form, found
+	 *         without fetching the encoded ids themselves
+	 */
+	public Set<Long> getCompactDownloadIds(List<Long> downloadIds) {
+		Set<Long> compactIds = new HashSet<>();
+		TypedQuery<Long> query = em.createQuery("SELECT download.id FROM Download download"
+				+ " WHERE download.id IN :ids AND download.encodedInvestigationIds IS NOT NULL", Long.class);
+		for (List<Long> chunk : chunk(downloadIds)) {
+			compactIds.addAll(query.setParameter("ids", chunk).getResultList());
+		}
+		return compactIds;
+	}
+
+	private List<String> getConditions(String userName, String queryOffset) throws BadRequestException {
+		List<String> conditions = new ArrayList<>();
+		if (userName != null) {
+			conditions.add("download.userName = :userName");
+		}
+		if (queryOffset != null && !queryOffset.trim().isEmpty()) {
+			String condition = queryOffset.replaceAll("(?i)^\\s*WHERE\\s+", "");
+			// As for getDownloads, users may not close the bracket around their condition
+			if (userName != null && condition.indexOf(')') > -1) {
+				throw new BadRequestException("downloads queryOffset contains illegal characters");
+			}
+			conditions.add("(" + condition + ")");
+		}
+		return conditions;
+	}
+
+	private static String getWhereClause(List<String> conditions) {
+		return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+	}
+
+	private static List<List<Long>> chunk(List<Long> ids) {
+		List<List<Long>> chunks = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i += IN_CLAUSE_SIZE) {
+			chunks.add(ids.subList(i, Math.min(i + IN_CLAUSE_SIZE, ids.size())));
+		}
+		return chunks;
+	}
+
 	public Download getDownload(Long id) {
 		return em.find(Download.class, id);
 	}
@@ -12,6 +12,8 @@ import jakarta.annotation.Resource;
 import jakarta.ejb.EJB;
 import jakarta.ejb.LocalBean;
 import jakarta.ejb.Stateless;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
 import jakarta.mail.Session;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.GET;
@@ -36,12 +38,16 @@ import org.icatproject.topcat.exceptions.ForbiddenException;
 import org.icatproject.topcat.exceptions.InternalException;
 import org.icatproject.topcat.repository.DownloadRepository;
 import org.icatproject.topcat.repository.DownloadTypeRepository;
+import org.icatproject.topcat.repository.CacheEpochRepository;
 import org.icatproject.topcat.repository.CacheRepository;
 import org.icatproject.topcat.repository.ConfVarRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.icatproject.topcat.CacheRegistry;
 import org.icatproject.topcat.FacilityMap;
 import org.icatproject.topcat.IcatClient;
+import org.icatproject.topcat.IdsClient;
+import org.icatproject.topcat.Properties;
 import org.icatproject.topcat.StatusCheck;
 
 @Stateless
@@ -62,6 +68,9 @@ public class AdminResource {
 	@EJB
 	private CacheRepository cacheRepository;
 
+	@EJB
+	private CacheEpochRepository cacheEpochRepository;
+
     @Resource(name = "mail/topcat")
     private Session mailSession;
 
@@ -140,6 +149,88 @@ public class AdminResource {
         return Response.ok().entity(new GenericEntity<List<Download>>(downloads){}).build();
     }
 
+    /**
+     * Returns a page of all downloads, newest first, found from the last Download
+     * of the previous page rather than an offset. See the user
+     * /downloads/page endpoint for the parameters and response.
+     *
+     * @summary getDownloadsPage
+     *
+	 * @param facilityName
+	 *            a facility name - properties must map this to a url to a valid ICAT REST api.
+     * 
+     * @param sessionId a valid session id which takes the form <code>0d9a3706-80d4-4d29-9ff3-4d65d4308a24</code> 
+     *
+     * @param queryOffset optional JPQL condition on download, without a limit clause
+     *
+     * @param afterId the nextAfterId returned with the previous page, omitted for the first page
+     *
+     * @param limit the maximum number of downloads to return, at most downloads.maxPageSize
+     *
+     * @param items "all" (the default), "count" or "none"
+     *
+     * @return returns the page in the form {"downloads":[...],"nextAfterId":2}
+     *
+     * @throws MalformedURLException if facilityName is invalid.
+     *
+     * @throws TopcatException if anything else goes wrong.
+     */
+    @GET
+    @Path("/downloads/page")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getDownloadsPage(
+        @QueryParam("facilityName") String facilityName,
+        @QueryParam("sessionId") String sessionId,
+        @QueryParam("queryOffset") String queryOffset,
+        @QueryParam("afterId") Long afterId,
+        @QueryParam("limit") Integer limit,
+        @QueryParam("items") String items)
+        throws TopcatException, MalformedURLException {
+
+        String icatUrl = getIcatUrl( facilityName );
+        onlyAllowAdmin(icatUrl, sessionId);
+
+        return getDownloadPage().getPage(null, queryOffset, afterId, limit, items);
+    }
+
+    /**
+     * Returns the number of downloads, without loading any of them.
+     *
+     * @summary getDownloadsCount
+     *
+	 * @param facilityName
+	 *            a facility name - properties must map this to a url to a valid ICAT REST api.
+     * 
+     * @param sessionId a valid session id which takes the form <code>0d9a3706-80d4-4d29-9ff3-4d65d4308a24</code> 
+     *
+     * @param queryOffset optional JPQL condition on download, without a limit clause
+     *
+     * @return returns the number in the form {"count":10}
+     *
+     * @throws MalformedURLException if facilityName is invalid.
+     *
+     * @throws TopcatException if anything else goes wrong.
+     */
+    @GET
+    @Path("/downloads/count")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getDownloadsCount(
+        @QueryParam("facilityName") String facilityName,
+        @QueryParam("sessionId") String sessionId,
+        @QueryParam("queryOffset") String queryOffset)
+        throws TopcatException, MalformedURLException {
+
+        String icatUrl = getIcatUrl( facilityName );
+        onlyAllowAdmin(icatUrl, sessionId);
+
+        return getDownloadPage().getCount(null, queryOffset);
+    }
+
+    private DownloadPage getDownloadPage() {
+        String maxPageSize = Properties.getInstance().getProperty("downloads.maxPageSize", "1000");
+        return new DownloadPage(downloadRepository, Integer.valueOf(maxPageSize));
+    }
+
     /**
      * Sets the download status.
      *
@@ -372,10 +463,135 @@ public class AdminResource {
         String icatUrl = getIcatUrl( facilityName );
         onlyAllowAdmin(icatUrl, sessionId);
 
-        String key = "getSize:" + entityType + ":" + id;
+        String key = IdsClient.getSizeKey(facilityName, entityType, id);
         cacheRepository.remove(key);
+        cacheEpochRepository.invalidateKey(key);
+        return Response.ok().build();
+    }
+
+   /**
+     * Removes all cached sizes for the facility, for example after a bulk re-ingest.
+     *
+     * @summary clearCachedSizes
+     *
+     * @param entityType optional type of entity to limit the removal to: "investigation", "dataset" or "datafile".
+     *
+	 * @param facilityName
+	 *            a facility name - properties must map this to a url to a valid ICAT REST api.
+     * 
+     * @param sessionId a valid session id which takes the form <code>0d9a3706-80d4-4d29-9ff3-4d65d4308a24</code> 
+     * 
+     * @return the number of cached values removed, in the form <samp>{"removed": 10}</samp>
+     *
+     * @throws MalformedURLException if facilityName is invalid.
+     *
+     * @throws TopcatException if anything else goes wrong.
+     */
+    @DELETE
+    @Path("/clearSizes")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response clearCachedSizes(
+        @QueryParam("entityType") String entityType,
+        @QueryParam("facilityName") String facilityName,
+        @QueryParam("sessionId") String sessionId)
+        throws TopcatException, MalformedURLException {
+
+        String icatUrl = getIcatUrl( facilityName );
+        onlyAllowAdmin(icatUrl, sessionId);
+
+        String prefix = IdsClient.getSizeKeyPrefix(facilityName);
+        if (entityType != null && !entityType.isEmpty()) {
+            prefix += entityType + ":";
+        }
+        int removed = cacheRepository.removeByPrefix(prefix);
+        cacheEpochRepository.invalidatePrefix(prefix);
+        return buildRemovedResponse(removed);
+    }
+
+   /**
+     * Removes all cached values whose keys start with the given prefix.
+     *
+     * @summary clearCachedPrefix
+     *
+     * @param prefix the prefix of the keys to remove, for example <code>getSize:LILS:dataset:</code>
+     *
+	 * @param facilityName
+	 *            a facility name - properties must map this to a url to a valid ICAT REST api.
+     * 
+     * @param sessionId a valid session id which takes the form <code>0d9a3706-80d4-4d29-9ff3-4d65d4308a24</code> 
+     * 
+     * @return the number of cached values removed, in the form <samp>{"removed": 10}</samp>
+     *
+     * @throws MalformedURLException if facilityName is invalid.
+     *
+     * @throws TopcatException if anything else goes wrong.
+     */
+    @DELETE
+    @Path("/clearCache")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response clearCachedPrefix(
+        @QueryParam("prefix") String prefix,
+        @QueryParam("facilityName") String facilityName,
+        @QueryParam("sessionId") String sessionId)
+        throws TopcatException, MalformedURLException {
+
+        String icatUrl = getIcatUrl( facilityName );
+        onlyAllowAdmin(icatUrl, sessionId);
+
+        if (prefix == null || prefix.isEmpty()) {
+            throw new BadRequestException("prefix must be provided");
+        }
+        int removed = cacheRepository.removeByPrefix(prefix);
+        cacheEpochRepository.invalidatePrefix(prefix);
+        return buildRemovedResponse(removed);
+    }
+
+   /**
+     * Clears the in memory caches on every node, for example after changing Grouping
+     * memberships in ICAT. Other nodes clear their caches within 10 seconds.
+     *
+     * @summary clearMemoryCaches
+     *
+     * @param region optional cache region to clear: "session", "priority", "groupings", "negative",
+     *            "cache" or "idsCapabilities". If not provided, all regions are cleared.
+     *
+	 * @param facilityName
+	 *            a facility name - properties must map this to a url to a valid ICAT REST api.
+     * 
+     * @param sessionId a valid session id which takes the form <code>0d9a3706-80d4-4d29-9ff3-4d65d4308a24</code> 
+     * 
+     * @return an empty Response
+     *
+     * @throws MalformedURLException if facilityName is invalid.
+     *
+     * @throws TopcatException if anything else goes wrong.
+     */
+    @DELETE
+    @Path("/memoryCaches")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response clearMemoryCaches(
+        @QueryParam("region") String region,
+        @QueryParam("facilityName") String facilityName,
+        @QueryParam("sessionId") String sessionId)
+        throws TopcatException, MalformedURLException {
+
+        String icatUrl = getIcatUrl( facilityName );
+        onlyAllowAdmin(icatUrl, sessionId);
+
+        if (region == null || region.isEmpty()) {
+            cacheEpochRepository.invalidateAll();
+        } else if (CacheRegistry.isRegion(region)) {
+            cacheEpochRepository.invalidate(region);
+        } else {
+            throw new BadRequestException("Unknown cache region " + region);
+        }
         return Response.ok().build();
     }
+
+    private Response buildRemovedResponse(int removed) {
+        JsonObject jsonObject = Json.createObjectBuilder().add("removed", removed).build();
+        return Response.ok().entity(jsonObject.toString()).build();
+    }
     
     private void onlyAllowAdmin(String icatUrl, String sessionId) throws TopcatException, MalformedURLException {
         IcatClient icatClient = new IcatClient(icatUrl, sessionId);
@@ -0,0 +1,232 @@
+package org.icatproject.topcat.web.rest;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jakarta.json.Json;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import org.icatproject.topcat.domain.Download;
+import org.icatproject.topcat.domain.DownloadItem;
+import org.icatproject.topcat.exceptions.BadRequestException;
+import org.icatproject.topcat.repository.DownloadRepository;
+
+/**
+ * Builds the responses of the paged downloads endpoints shared by UserResource
+ * and AdminResource. Each page follows on from the last Download of the
+ * previous one in (createdAt, id) order rather than from an offset, and the
+ * DownloadItems of the whole page are loaded (or counted) in bulk rather than
+ * once per Download.
+ */
+public class DownloadPage {
+
+	/**
+	 * How much of the DownloadItems to include for each Download.
+	 */
+	private enum Items {
+		all, count, none
+	}
+
+	private final DownloadRepository downloadRepository;
+	private final int maxPageSize;
+
+	/**
+	 * @param downloadRepository DownloadRepository to query
+	 * @param maxPageSize        Maximum number of Downloads in a page
+	 */
+	public DownloadPage(DownloadRepository downloadRepository, int maxPageSize) {
+		this.downloadRepository = downloadRepository;
+		this.maxPageSize = maxPageSize;
+	}
+
+	/**
+	 * @param userName    userName the Downloads must belong to, or null for all
+	 *                    users
+	 * @param queryOffset Optional JPQL condition on download
+	 * @param afterId     nextAfterId returned with the previous page, or null for
+	 *                    the first page
+	 * @param limit       Maximum number of Downloads to return, capped at
+	 *                    maxPageSize
+	 * @param items       One of "all", "count" or "none"
+	 * @return Response streaming the page in the form
+	 *         {"downloads":[...],"nextAfterId":2}. nextAfterId is
+	 *         null if there are no more Downloads.
+	 * @throws BadRequestException if any of the arguments are invalid
+	 */
+	public Response getPage(String userName, String queryOffset, Long afterId, Integer limit, String items)
+			throws BadRequestException {
+		Items itemsMode = parseItems(items);
+		int pageSize = limit == null ? maxPageSize : limit;
+		if (pageSize < 1 || pageSize > maxPageSize) {
+			throw new BadRequestException("limit must be between 1 and " + maxPageSize);
+		}
+
+		List<Download> downloads = downloadRepository.getDownloadsPage(userName, queryOffset, afterId, pageSize);
+		List<Long> downloadIds = new ArrayList<>();
+		for (Download download : downloads) {
+			downloadIds.add(download.getId());
+		}
+		Set<Long> compactIds = itemsMode == Items.none ? Set.of() : downloadRepository.getCompactDownloadIds(downloadIds);
+		Map<Long, List<DownloadItem>> downloadItems = itemsMode == Items.all
+				? downloadRepository.getDownloadItems(downloadIds)
+				: Map.of();
+		Map<Long, Long> itemCounts = itemsMode == Items.count
+				? downloadRepository.getDownloadItemCounts(downloadIds)
+				: Map.of();
+
+		// Decode the compact ids now, while the lazy columns can still be loaded
+		for (Download download : downloads) {
+			if (compactIds.contains(download.getId())) {
+				download.getInvestigationIdArray();
+				download.getDatasetIdArray();
+				download.getDatafileIdArray();
+			}
+		}
+
+		Long nextAfterId = downloads.size() == pageSize ? downloads.get(downloads.size() - 1).getId() : null;
+
+		StreamingOutput output = outputStream -> {
+			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+			try (JsonGenerator generator = Json.createGenerator(outputStream)) {
+				generator.writeStartObject();
+				generator.writeStartArray("downloads");
+				for (Download download : downloads) {
+					generator.writeStartObject();
+					writeFields(generator, download, dateFormat);
+					Long id = download.getId();
+					if (itemsMode == Items.all) {
+						if (compactIds.contains(id)) {
+							writeCompactItems(generator, download);
+						} else {
+							writeItems(generator, downloadItems.getOrDefault(id, List.of()));
+						}
+					} else if (itemsMode == Items.count) {
+						long itemCount = compactIds.contains(id)
+								? download.getInvestigationIdArray().length + download.getDatasetIdArray().length
+										+ download.getDatafileIdArray().length
+								: itemCounts.getOrDefault(id, 0L);
+						generator.write("itemCount", itemCount);
+					}
+					generator.writeEnd();
+				}
+				generator.writeEnd();
+				if (nextAfterId == null) {
+					generator.writeNull("nextAfterId");
+				} else {
+					generator.write("nextAfterId", nextAfterId);
+				}
+				generator.writeEnd();
+			}
+		};
+		return Response.ok(output, MediaType.APPLICATION_JSON).build();
+	}
+
+	/**
+	 * @param userName    userName the Downloads must belong to, or null for all
+	 *                    users
+	 * @param queryOffset Optional JPQL condition on download
+	 * @return Response in the form {"count":10}
+	 * @throws BadRequestException if queryOffset is not allowed
+	 */
+	public Response getCount(String userName, String queryOffset) throws BadRequestException {
+		long count = downloadRepository.countDownloads(userName, queryOffset);
+		return Response.ok(Json.createObjectBuilder().add("count", count).build().toString(),
+				MediaType.APPLICATION_JSON).build();
+	}
+
+	private static Items parseItems(String items) throws BadRequestException {
+		if (items == null || items.isEmpty()) {
+			return Items.all;
+		}
+		try {
+			return Items.valueOf(items);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException("items must be one of all, count or none");
+		}
+	}
+
+	private static void writeFields(JsonGenerator generator, Download download, SimpleDateFormat dateFormat) {
+		generator.write("id", download.getId());
+		writeNullable(generator, "facilityName", download.getFacilityName());
+		writeNullable(generator, "userName", download.getUserName());
+		writeNullable(generator, "fullName", download.getFullName());
+		writeNullable(generator, "transport", download.getTransport());
+		writeNullable(generator, "fileName", download.getFileName());
+		writeNullable(generator, "preparedId", download.getPreparedId());
+		writeNullable(generator, "sessionId", download.getSessionId());
+		writeNullable(generator, "email", download.getEmail());
+		writeNullable(generator, "isEmailSent", download.getIsEmailSent());
+		writeNullable(generator, "status", download.getStatus() == null ? null : download.getStatus().toString());
+		generator.write("priority", download.getPriority());
+		generator.write("size", download.getSize());
+		writeNullable(generator, "isTwoLevel", download.getIsTwoLevel());
+		writeNullable(generator, "isDeleted", download.getIsDeleted());
+		writeNullable(generator, "createdAt", download.getCreatedAt(), dateFormat);
+		writeNullable(generator, "deletedAt", download.getDeletedAt(), dateFormat);
+		writeNullable(generator, "completedAt", download.getCompletedAt(), dateFormat);
+	}
+
+	private static void writeItems(JsonGenerator generator, List<DownloadItem> downloadItems) {
+		generator.writeStartArray("downloadItems");
+		for (DownloadItem downloadItem : downloadItems) {
+			generator.writeStartObject();
+			generator.write("id", downloadItem.getId());
+			generator.write("entityType", downloadItem.getEntityType().toString());
+			generator.write("entityId", downloadItem.getEntityId());
+			generator.writeEnd();
+		}
+		generator.writeEnd();
+	}
+
+	/**
+	 * Compact Downloads have no DownloadItems, so write the decoded ids without
+	 * an id of their own.
+	 */
+	private static void writeCompactItems(JsonGenerator generator, Download download) {
+		generator.writeStartArray("downloadItems");
+		writeCompactItems(generator, "investigation", download.getInvestigationIdArray());
+		writeCompactItems(generator, "dataset", download.getDatasetIdArray());
+		writeCompactItems(generator, "datafile", download.getDatafileIdArray());
+		generator.writeEnd();
+	}
+
+	private static void writeCompactItems(JsonGenerator generator, String entityType, long[] entityIds) {
+		for (long entityId : entityIds) {
+			generator.writeStartObject();
+			generator.write("entityType", entityType);
+			generator.write("entityId", entityId);
+			generator.writeEnd();
+		}
+	}
+
+	private static void writeNullable(JsonGenerator generator, String name, String value) {
+		if (value == null) {
+			generator.writeNull(name);
+		} else {
+			generator.write(name, value);
+		}
+	}
+
+	private static void writeNullable(JsonGenerator generator, String name, Boolean value) {
+		if (value == null) {
+			generator.writeNull(name);
+		} else {
+			generator.write(name, value);
+		}
+	}
+
+	private static void writeNullable(JsonGenerator generator, String name, Date value, SimpleDateFormat dateFormat) {
+		if (value == null) {
+			generator.writeNull(name);
+		} else {
+			generator.write(name, dateFormat.format(value));
+		}
+	}
+}
@@ -3,18 +3,27 @@ package org.icatproject.topcat.web.rest;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
+import jakarta.annotation.Resource;
 import jakarta.ejb.EJB;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
 import jakarta.ejb.LocalBean;
 import jakarta.ejb.Stateless;
 
 import jakarta.json.*;
+import jakarta.json.stream.JsonGenerator;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.ws.rs.DELETE;
@@ -29,6 +38,7 @@ import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.GenericEntity;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import jakarta.ws.rs.DefaultValue;
 
 import org.icatproject.topcat.domain.*;
@@ -44,6 +54,7 @@ import org.icatproject.topcat.DownloadBuilder;
 import org.icatproject.topcat.FacilityMap;
 import org.icatproject.topcat.IcatClient;
 import org.icatproject.topcat.Properties;
+import org.icatproject.topcat.SizeProvider;
 import org.icatproject.topcat.TransportMap;
 import org.icatproject.topcat.IcatClient.DatafilesResponse;
 import org.icatproject.topcat.TransportMap.TransportMechanism;
@@ -68,12 +79,24 @@ public class UserResource {
 	@EJB
 	private CacheRepository cacheRepository;
 
+	@Resource
+	private ManagedExecutorService executorService;
+
+	// Number of DownloadItems to write before flushing and clearing the
+	// persistence context when submitting many Downloads at once
+	private static final int SUBMIT_FLUSH_SIZE = 10000;
+
 	private String anonUserName;
 	private String defaultPlugin;
 	private boolean queryEnabled;
 	private int maxResults;
 	private int maxFileCount;
 	private boolean queueCarts;
+	private int maxSizeEntities;
+	private int maxCartPageSize;
+	private long maxCartVersions;
+	private int maxDownloadsPageSize;
+	private boolean compactDownloadItems;
 
 	/**
 	 * Only used for testing.
@@ -95,6 +118,11 @@ public class UserResource {
 		this.maxResults = Integer.valueOf(properties.getProperty("search.maxResults", "10000"));
 		this.maxFileCount = Integer.valueOf(properties.getProperty("queue.files.maxFileCount", "10000"));
 		this.queueCarts = Boolean.valueOf(properties.getProperty("queue.carts", "false"));
+		this.maxSizeEntities = Integer.valueOf(properties.getProperty("getSize.maxEntities", "1000"));
+		this.maxCartPageSize = Integer.valueOf(properties.getProperty("cart.maxPageSize", "1000"));
+		this.maxCartVersions = Long.valueOf(properties.getProperty("cart.changeLog.maxVersions", "100"));
+		this.compactDownloadItems = Boolean.valueOf(properties.getProperty("download.compactItems", "false"));
+		this.maxDownloadsPageSize = Integer.valueOf(properties.getProperty("downloads.maxPageSize", "1000"));
     }
 
 	/**
@@ -202,6 +230,104 @@ public class UserResource {
 		}).build();
 	}
 
+	/**
+	 * Returns a page of the downloads associated with a particular sessionId,
+	 * newest first. Unlike /downloads, each page is found from the last Download
+	 * of the previous one rather than an offset, so later pages are as fast as
+	 * the first, and the downloadItems can be counted or left out.
+	 *
+	 * @summary getDownloadsPage
+	 *
+	 * @param facilityName
+	 *            a facility name - properties must map this to a url to a valid ICAT REST api.
+	 *
+	 * @param sessionId
+	 *            a valid session id which takes the form
+	 *            <code>0d9a3706-80d4-4d29-9ff3-4d65d4308a24</code>
+	 *
+	 * @param queryOffset
+	 *            optional JPQL condition on download, as for /downloads but
+	 *            without a limit clause, e.g. "where download.isDeleted = false".
+	 *            The expression must not contain closing brackets (")").
+	 *
+	 * @param afterId
+	 *            the nextAfterId returned with the previous page, omitted for the
+	 *            first page
+	 *
+	 * @param limit
+	 *            the maximum number of downloads to return, which defaults to and
+	 *            may not exceed downloads.maxPageSize
+	 *
+	 * @param items
+	 *            "all" (the default) to include the downloadItems, "count" to
+	 *            include only their number as itemCount, or "none"
+	 *
+	 * @return returns the page in the form
+	 *         {"downloads":[{"id":2,"facilityName":"test","userName":"simple/root",
+	 *         ...,"createdAt":"2016-03-18T16:02:36","itemCount":2}],
+	 *         "nextAfterId":2}. nextAfterId is null if there are no more
+	 *         downloads.
+	 *
+	 * @throws MalformedURLException
+	 *             if facilityName is invalid.
+	 *
+	 * @throws TopcatException
+	 *             if anything else goes wrong.
+	 */
+	@GET
+	@Path("/downloads/page")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Response getDownloadsPage(@QueryParam("facilityName") String facilityName,
+			@QueryParam("sessionId") String sessionId, @QueryParam("queryOffset") String queryOffset,
+			@QueryParam("afterId") Long afterId, @QueryParam("limit") Integer limit,
+			@QueryParam("items") String items) throws TopcatException, MalformedURLException {
+
+		String icatUrl = DownloadBuilder.getIcatUrl(facilityName);
+		IcatClient icatClient = new IcatClient(icatUrl, sessionId);
+		String cartUserName = getCartUserName(icatClient.getUserName(), sessionId);
+
+		DownloadPage downloadPage = new DownloadPage(downloadRepository, maxDownloadsPageSize);
+		return downloadPage.getPage(cartUserName, queryOffset, afterId, limit, items);
+	}
+
+	/**
+	 * Returns the number of downloads associated with a particular sessionId,
+	 * without loading any of them.
+	 *
+	 * @summary getDownloadsCount
+	 *
+	 * @param facilityName
+	 *            a facility name - properties must map this to a url to a valid ICAT REST api.
+	 *
+	 * @param sessionId
+	 *            a valid session id which takes the form
+	 *            <code>0d9a3706-80d4-4d29-9ff3-4d65d4308a24</code>
+	 *
+	 * @param queryOffset
+	 *            optional JPQL condition on download, as for /downloads/page
+	 *
+	 * @return returns the number in the form {"count":10}
+	 *
+	 * @throws MalformedURLException
+	 *             if facilityName is invalid.
+	 *
+	 * @throws TopcatException
+	 *             if anything else goes wrong.
+	 */
+	@GET
+	@Path("/downloads/count")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Response getDownloadsCount(@QueryParam("facilityName") String facilityName,
+			@QueryParam("sessionId") String sessionId, @QueryParam("queryOffset") String queryOffset)
+			throws TopcatException, MalformedURLException {
+
+		String icatUrl = DownloadBuilder.getIcatUrl(facilityName);
+		IcatClient icatClient = new IcatClient(icatUrl, sessionId);
+		String cartUserName = getCartUserName(icatClient.getUserName(), sessionId);
+
+		return new DownloadPage(downloadRepository, maxDownloadsPageSize).getCount(cartUserName, queryOffset);
+	}
+
 	/**
 	 * Get the statuses of one or more in progress Downloads.
 	 * 
@@ -406,6 +532,302 @@ public class UserResource {
 		}
 	}
 
+	/**
+	 * Returns a summary of the cart associated with a particular sessionId and
+	 * facility, without loading any of its items.
+	 *
+	 * @summary getCartSummary
+	 *
+	 * @param facilityName
+	 *            the name of the facility e.g. 'dls'.
+	 *            Properties must map this to a url to a valid ICAT REST api.
+	 *
+	 * @param sessionId
+	 *            a valid session id which takes the form
+	 *            <code>0d9a3706-80d4-4d29-9ff3-4d65d4308a24</code>
+	 *
+	 * @return returns the summary in the form:
+	 *         {"facilityName":"example","userName":"simple/root",
+	 *         "cartItemCount":2,"totalSize":1024,"totalCount":10,
+	 *         "updatedAt":"2016-03-30T10:52:32"}. totalSize and totalCount are
+	 *         null if they are not known, and updatedAt is null for an empty cart.
+	 *
+	 * @throws MalformedURLException
+	 *             if facilityName is invalid.
+	 *
+	 * @throws TopcatException
+	 *             if anything else goes wrong.
+	 */
+	@GET
+	@Path("/cart/{facilityName}/summary")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Response getCartSummary(@PathParam("facilityName") String facilityName,
+			@QueryParam("sessionId") String sessionId) throws TopcatException, MalformedURLException {
+
+		String icatUrl = DownloadBuilder.getIcatUrl( facilityName );
+		IcatClient icatClient = new IcatClient(icatUrl, sessionId);
+
+		String userName = icatClient.getUserName();
+		String cartUserName = getCartUserName(userName, sessionId);
+		Cart cart = cartRepository.getCart(cartUserName, facilityName);
+
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		builder.add("facilityName", facilityName);
+		builder.add("userName", cartUserName);
+		if (cart == null) {
+			builder.add("cartItemCount", 0);
+			builder.add("totalSize", 0);
+			builder.add("totalCount", 0);
+			builder.addNull("updatedAt");
+		} else {
+			builder.add("cartItemCount", cartRepository.getCartItemCount(cart));
+			addNullable(builder, "totalSize", cart.getTotalSize());
+			addNullable(builder, "totalCount", cart.getTotalCount());
+			builder.add("updatedAt", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(cart.getUpdatedAt()));
+		}
+		return Response.ok().entity(builder.build().toString()).build();
+	}
+
+	/**
+	 * Returns a page of the items in the cart associated with a particular
+	 * sessionId and facility, ordered by id. The response is streamed, so large
+	 * carts should be read a page at a time by passing the nextAfterId of each
+	 * response as the afterId of the next request.
+	 *
+	 * @summary getCartItems
+	 *
+	 * @param facilityName
+	 *            the name of the facility e.g. 'dls'.
+	 *            Properties must map this to a url to a valid ICAT REST api.
+	 *
+	 * @param sessionId
+	 *            a valid session id which takes the form
+	 *            <code>0d9a3706-80d4-4d29-9ff3-4d65d4308a24</code>
+	 *
+	 * @param afterId
+	 *            only cart items with an id greater than this are returned
+	 *            (default 0)
+	 *
+	 * @param limit
+	 *            maximum number of cart items to return, which cannot exceed
+	 *            cart.maxPageSize (default 1000)
+	 *
+	 * @return returns the page in the form:
+	 *         {"facilityName":"example","userName":"simple/root","cartItems":
+	 *         [{"id":1,"entityType":"datafile","entityId":18178,"name":
+	 *         "tenenvironment.rhy","fileSize":1024,"fileCount":1,
+	 *         "parentEntities":[{"id":1,"entityType":"investigation",
+	 *         "entityId":182},{"id":2,"entityType":"dataset","entityId":1818}]}],
+	 *         "nextAfterId":1}. nextAfterId is null on the last page.
+	 *
+	 * @throws MalformedURLException
+	 *             if facilityName is invalid.
+	 *
+	 * @throws TopcatException
+	 *             if anything else goes wrong.
+	 */
+	@GET
+	@Path("/cart/{facilityName}/cartItems")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Response getCartItems(@PathParam("facilityName") String facilityName,
+			@QueryParam("sessionId") String sessionId,
+			@DefaultValue("0") @QueryParam("afterId") Long afterId,
+			@QueryParam("limit") Integer limit) throws TopcatException, MalformedURLException {
+
+		if (limit == null || limit > maxCartPageSize) {
+			limit = maxCartPageSize;
+		} else if (limit < 1) {
+			throw new BadRequestException("limit must be positive");
+		}
+
+		String icatUrl = DownloadBuilder.getIcatUrl( facilityName );
+		IcatClient icatClient = new IcatClient(icatUrl, sessionId);
+
+		String userName = icatClient.getUserName();
+		String cartUserName = getCartUserName(userName, sessionId);
+		Cart cart = cartRepository.getCart(cartUserName, facilityName);
+
+		// Read the page within the transaction, and only stream it afterwards
+		List<CartItem> cartItems = cart == null ? List.of() : cartRepository.getCartItems(cart, afterId, limit);
+		Map<Long, List<ParentEntity>> parentEntities = cartRepository.getParentEntities(cartItems);
+		Long nextAfterId = cartItems.size() == limit ? cartItems.get(cartItems.size() - 1).getId() : null;
+
+		StreamingOutput output = outputStream -> {
+			try (JsonGenerator generator = Json.createGenerator(outputStream)) {
+				generator.writeStartObject();
+				generator.write("facilityName", facilityName);
+				generator.write("userName", cartUserName);
+				generator.writeStartArray("cartItems");
+				for (CartItem cartItem : cartItems) {
+					writeCartItem(generator, cartItem, parentEntities.getOrDefault(cartItem.getId(), List.of()));
+				}
+				generator.writeEnd();
+				if (nextAfterId == null) {
+					generator.writeNull("nextAfterId");
+				} else {
+					generator.write("nextAfterId", nextAfterId);
+				}
+				generator.writeEnd();
+			}
+		};
+		return Response.ok(output, MediaType.APPLICATION_JSON).build();
+	}
+
+	/**
+	 * Returns the items added to and removed from the cart associated with a
+	 * particular sessionId and facility since a previous version, so that a
+	 * client holding a copy of the cart need not fetch all of it again. If the
+	 * changes are no longer available, reset is true and the client should fetch
+	 * the whole cart instead.
+	 *
+	 * @summary getCartChanges
+	 *
+	 * @param facilityName
+	 *            the name of the facility e.g. 'dls'.
+	 *            Properties must map this to a url to a valid ICAT REST api.
+	 *
+	 * @param sessionId
+	 *            a valid session id which takes the form
+	 *            <code>0d9a3706-80d4-4d29-9ff3-4d65d4308a24</code>
+	 *
+	 * @param sinceVersion
+	 *            the version of the cart held by the client (default 0)
+	 *
+	 * @param cartId
+	 *            the id of the cart held by the client. If given and the cart
+	 *            has since been emptied or submitted and then recreated, reset is
+	 *            true.
+	 *
+	 * @return returns the changes in the form:
+	 *         {"facilityName":"example","userName":"simple/root","cartId":1,
+	 *         "version":5,"reset":false,"added":[{"id":3,"entityType":
+	 *         "investigation","entityId":181,"name":"APPLIEDAHEAD","fileSize":
+	 *         1024,"fileCount":10,"parentEntities":[]}],"removed":[1,2]}.
+	 *         cartId is null if there is no cart.
+	 *
+	 * @throws MalformedURLException
+	 *             if facilityName is invalid.
+	 *
+	 * @throws TopcatException
+	 *             if anything else goes wrong.
+	 */
+	@GET
+	@Path("/cart/{facilityName}/changes")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Response getCartChanges(@PathParam("facilityName") String facilityName,
+			@QueryParam("sessionId") String sessionId,
+			@DefaultValue("0") @QueryParam("sinceVersion") Long sinceVersion,
+			@QueryParam("cartId") Long cartId) throws TopcatException, MalformedURLException {
+
+		String icatUrl = DownloadBuilder.getIcatUrl( facilityName );
+		IcatClient icatClient = new IcatClient(icatUrl, sessionId);
+
+		String userName = icatClient.getUserName();
+		String cartUserName = getCartUserName(userName, sessionId);
+		Cart cart = cartRepository.getCart(cartUserName, facilityName);
+
+		Long currentCartId = cart == null ? null : cart.getId();
+		long version = cart == null ? 0L : cart.getVersion();
+		boolean reset = (cartId != null && !cartId.equals(currentCartId)) || sinceVersion > version
+				|| sinceVersion < version - maxCartVersions;
+
+		// Only the last change to each CartItem matters to the client
+		Map<Long, CartChangeType> lastChanges = new LinkedHashMap<Long, CartChangeType>();
+		if (cart != null && !reset) {
+			for (CartChange cartChange : cartRepository.getCartChanges(cart, sinceVersion)) {
+				lastChanges.put(cartChange.getCartItemId(), cartChange.getChangeType());
+			}
+		}
+		List<Long> addedIds = new ArrayList<Long>();
+		List<Long> removedIds = new ArrayList<Long>();
+		for (Entry<Long, CartChangeType> entry : lastChanges.entrySet()) {
+			if (entry.getValue().equals(CartChangeType.ADDED)) {
+				addedIds.add(entry.getKey());
+			} else {
+				removedIds.add(entry.getKey());
+			}
+		}
+		List<CartItem> addedItems = addedIds.isEmpty() ? List.of() : cartRepository.getCartItemsById(cart, addedIds);
+		Map<Long, List<ParentEntity>> parentEntities = cartRepository.getParentEntities(addedItems);
+
+		StreamingOutput output = outputStream -> {
+			try (JsonGenerator generator = Json.createGenerator(outputStream)) {
+				generator.writeStartObject();
+				generator.write("facilityName", facilityName);
+				generator.write("userName", cartUserName);
+				if (currentCartId == null) {
+					generator.writeNull("cartId");
+				} else {
+					generator.write("cartId", currentCartId);
+				}
+				generator.write("version", version);
+				generator.write("reset", reset);
+				generator.writeStartArray("added");
+				for (CartItem cartItem : addedItems) {
+					writeCartItem(generator, cartItem, parentEntities.getOrDefault(cartItem.getId(), List.of()));
+				}
+				generator.writeEnd();
+				generator.writeStartArray("removed");
+				for (Long removedId : removedIds) {
+					generator.write(removedId);
+				}
+				generator.writeEnd();
+				generator.writeEnd();
+			}
+		};
+		return Response.ok(output, MediaType.APPLICATION_JSON).build();
+	}
+
+	/**
+	 * @param generator      JsonGenerator positioned within an array
+	 * @param cartItem       CartItem to write
+	 * @param parentEntities ParentEntities of the CartItem
+	 */
+	private static void writeCartItem(JsonGenerator generator, CartItem cartItem, List<ParentEntity> parentEntities) {
+		generator.writeStartObject();
+		generator.write("id", cartItem.getId());
+		generator.write("entityType", cartItem.getEntityType().toString());
+		generator.write("entityId", cartItem.getEntityId());
+		if (cartItem.getName() == null) {
+			generator.writeNull("name");
+		} else {
+			generator.write("name", cartItem.getName());
+		}
+		if (cartItem.getFileSize() == null) {
+			generator.writeNull("fileSize");
+		} else {
+			generator.write("fileSize", cartItem.getFileSize());
+		}
+		if (cartItem.getFileCount() == null) {
+			generator.writeNull("fileCount");
+		} else {
+			generator.write("fileCount", cartItem.getFileCount());
+		}
+		generator.writeStartArray("parentEntities");
+		for (ParentEntity parentEntity : parentEntities) {
+			generator.writeStartObject();
+			generator.write("id", parentEntity.getId());
+			generator.write("entityType", parentEntity.getEntityType().toString());
+			generator.write("entityId", parentEntity.getEntityId());
+			generator.writeEnd();
+		}
+		generator.writeEnd();
+		generator.writeEnd();
+	}
+
+	/**
+	 * @param builder JsonObjectBuilder to add to
+	 * @param name    Name of the field
+	 * @param value   Value of the field, which may be null
+	 */
+	private static void addNullable(JsonObjectBuilder builder, String name, Long value) {
+		if (value == null) {
+			builder.addNull(name);
+		} else {
+			builder.add(name, value);
+		}
+	}
+
 	/**
 	 * Adds items to the cart associated with a particular sessionId and
 	 * facility.
@@ -520,42 +942,84 @@ public class UserResource {
 					isDatasetIdIndex.put(entityId, true);
 				} else {
 					datafileIdsToAdd.add(entityId);
+					isDatafileIdIndex.put(entityId, true);
 				}
 			}
 		}
 
-		addEntitiesToCart(icatClient, cart, "investigation", investigationIdsToAdd);
-		addEntitiesToCart(icatClient, cart, "dataset", datasetIdsToAdd);
-		addEntitiesToCart(icatClient, cart, "datafile", datafileIdsToAdd);
-
-		em.flush();
-		em.refresh(cart);
-
-		//remove any entities that have a parent added to the cart
+		List<CartItem> newCartItems = new ArrayList<CartItem>();
+		newCartItems.addAll(buildCartItems(icatClient, cart, "investigation", investigationIdsToAdd));
+		newCartItems.addAll(buildCartItems(icatClient, cart, "dataset", datasetIdsToAdd));
+		newCartItems.addAll(buildCartItems(icatClient, cart, "datafile", datafileIdsToAdd));
+
+		// Remove any entities that have a parent in the cart. Existing items can only
+		// have one of the newly added parents, so look these up with a query rather
+		// than loading the parents of every item in the cart.
+		Set<Long> cartItemIdsToRemove = new HashSet<Long>();
+		cartItemIdsToRemove.addAll(cartRepository.getCartItemIdsWithParents(cart, EntityType.investigation, investigationIdsToAdd));
+		cartItemIdsToRemove.addAll(cartRepository.getCartItemIdsWithParents(cart, EntityType.dataset, datasetIdsToAdd));
+		if (!cartItemIdsToRemove.isEmpty()) {
+			Iterator<CartItem> iterator = cart.getCartItems().iterator();
+			while (iterator.hasNext()) {
+				if (cartItemIdsToRemove.contains(iterator.next().getId())) {
+					iterator.remove();
+				}
+			}
+		}
 
-        for(CartItem cartItem : cart.getCartItems()){
-            for(ParentEntity parentEntity : cartItem.getParentEntities()){
-                if(parentEntity.getEntityType().equals(EntityType.valueOf("investigation")) && isInvestigationIdIndex.get(parentEntity.getEntityId()) != null){
-                    em.remove(cartItem);
-                    break;
-                } else if(parentEntity.getEntityType().equals(EntityType.valueOf("dataset")) && isDatasetIdIndex.get(parentEntity.getEntityId()) != null){
-                    em.remove(cartItem);
-                    break;
-                }
-            }
-        }
+		// New items are resolved in memory, so only the survivors are inserted
+		List<Long> addedCartItemIds = new ArrayList<Long>();
+		for (CartItem cartItem : newCartItems) {
+			if (!hasParentInCart(cartItem, isInvestigationIdIndex, isDatasetIdIndex)) {
+				cart.getCartItems().add(cartItem);
+				em.persist(cartItem);
+				addedCartItemIds.add(cartItem.getId());
+			}
+		}
 
+		cartRepository.recordChanges(cart, addedCartItemIds, cartItemIdsToRemove, maxCartVersions);
+		cart.updateTotals();
 		em.flush();
-		em.refresh(cart);
 
 		return Response.ok().entity(cart).build();
 	}
 
+	/**
+	 * @param cartItem               CartItem to check
+	 * @param isInvestigationIdIndex Investigation ids in the cart
+	 * @param isDatasetIdIndex       Dataset ids in the cart
+	 * @return Whether any of the parents of the CartItem are in the cart
+	 */
+	private static boolean hasParentInCart(CartItem cartItem, Map<Long, Boolean> isInvestigationIdIndex,
+			Map<Long, Boolean> isDatasetIdIndex) {
+		for (ParentEntity parentEntity : cartItem.getParentEntities()) {
+			if (parentEntity.getEntityType().equals(EntityType.investigation)
+					&& isInvestigationIdIndex.get(parentEntity.getEntityId()) != null) {
+				return true;
+			} else if (parentEntity.getEntityType().equals(EntityType.dataset)
+					&& isDatasetIdIndex.get(parentEntity.getEntityId()) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
 
-	private void addEntitiesToCart(IcatClient icatClient, Cart cart, String entityType, List<Long> entityIds) throws TopcatException {
+	/**
+	 * Build new CartItems, along with their ParentEntities, from the Entities in
+	 * ICAT. These are not persisted.
+	 * 
+	 * @param icatClient IcatClient to get the Entities with
+	 * @param cart       Cart the items will belong to
+	 * @param entityType Type of ICAT Entity
+	 * @param entityIds  ICAT Entity ids
+	 * @return List of new CartItems
+	 * @throws TopcatException if the Entities cannot be retrieved from ICAT
+	 */
+	private List<CartItem> buildCartItems(IcatClient icatClient, Cart cart, String entityType, List<Long> entityIds) throws TopcatException {
+		List<CartItem> cartItems = new ArrayList<CartItem>();
 		if(entityIds.size() == 0){
-			return;
-		}	
+			return cartItems;
+		}
 
 		for (JsonObject entity : icatClient.getEntities(entityType, entityIds)) {
 			String name = entity.getString("name");
@@ -566,31 +1030,48 @@ public class UserResource {
 			cartItem.setEntityType(EntityType.valueOf(entityType));
 			cartItem.setEntityId(entityId);
 			cartItem.setName(name);
-			em.persist(cartItem);
-
+			cartItem.setFileSize(getOptionalLong(entity, "fileSize"));
 
 			if (entityType.equals("datafile")) {
-				ParentEntity parentEntity = new ParentEntity();
-				parentEntity.setCartItem(cartItem);
-				parentEntity.setEntityType(EntityType.valueOf("dataset"));
-				parentEntity.setEntityId(Long.valueOf(entity.getJsonObject("dataset").getJsonNumber("id").longValue()));
-				cartItem.getParentEntities().add(parentEntity);
-				em.persist(parentEntity);
-
-				parentEntity = new ParentEntity();
-				parentEntity.setEntityType(EntityType.valueOf("investigation"));
-				parentEntity.setEntityId(Long.valueOf(entity.getJsonObject("dataset").getJsonObject("investigation").getJsonNumber("id").longValue()));
-				cartItem.getParentEntities().add(parentEntity);
-				em.persist(parentEntity);
-
-			} else if (entityType.equals("dataset")) {
-				ParentEntity parentEntity = new ParentEntity();
-				parentEntity.setEntityType(EntityType.valueOf("investigation"));
-				parentEntity.setEntityId(Long.valueOf(entity.getJsonObject("investigation").getJsonNumber("id").longValue()));
-				cartItem.getParentEntities().add(parentEntity);
-				em.persist(parentEntity);
+				cartItem.setFileCount(1L);
+				JsonObject dataset = entity.getJsonObject("dataset");
+				addParentEntity(cartItem, EntityType.dataset, dataset);
+				addParentEntity(cartItem, EntityType.investigation, dataset.getJsonObject("investigation"));
+			} else {
+				cartItem.setFileCount(getOptionalLong(entity, "fileCount"));
+				if (entityType.equals("dataset")) {
+					addParentEntity(cartItem, EntityType.investigation, entity.getJsonObject("investigation"));
+				}
 			}
+			cartItems.add(cartItem);
+		}
+		return cartItems;
+	}
+
+	/**
+	 * @param cartItem   CartItem to add the parent to
+	 * @param entityType Type of the parent
+	 * @param parent     JsonObject of the parent ICAT Entity
+	 */
+	private static void addParentEntity(CartItem cartItem, EntityType entityType, JsonObject parent) {
+		ParentEntity parentEntity = new ParentEntity();
+		parentEntity.setCartItem(cartItem);
+		parentEntity.setEntityType(entityType);
+		parentEntity.setEntityId(Long.valueOf(parent.getJsonNumber("id").longValue()));
+		cartItem.getParentEntities().add(parentEntity);
+	}
+
+	/**
+	 * @param entity JsonObject representing an ICAT Entity
+	 * @param key    Name of the numeric field
+	 * @return The value of the field, or null if it is not set
+	 */
+	private static Long getOptionalLong(JsonObject entity, String key) {
+		JsonValue value = entity.get(key);
+		if (value == null || !value.getValueType().equals(JsonValue.ValueType.NUMBER)) {
+			return null;
 		}
+		return ((JsonNumber) value).longValueExact();
 	}
 
 	/**
@@ -647,45 +1128,44 @@ public class UserResource {
 			return emptyCart(facilityName, cartUserName);
 		}
 
+		List<Long> removedCartItemIds = new ArrayList<Long>();
 		if (items.equals("*")) {
-			for (CartItem cartItem : cart.getCartItems()) {
-				em.remove(cartItem);
-			}
+			cartRepository.deleteAllCartItems(cart);
 		} else {
+			// Group the requested items so each type is deleted with a single statement
+			Map<EntityType, List<Long>> entityIds = new HashMap<EntityType, List<Long>>();
+			List<Long> cartItemIds = new ArrayList<Long>();
 			for (String item : items.split("\\s*,\\s*")) {
 				String[] pair = item.split("\\s+");
 
 				if (pair.length > 1) {
-					String entityType = pair[0];
+					EntityType entityType = EntityType.valueOf(pair[0]);
 					Long entityId = Long.parseLong(pair[1]);
-
-					for (CartItem cartItem : cart.getCartItems()) {
-						boolean entityTypesMatch = cartItem.getEntityType().equals(EntityType.valueOf(entityType));
-						boolean entityIdsMatch = cartItem.getEntityId().equals(entityId);
-						if (entityTypesMatch && entityIdsMatch) {
-							em.remove(cartItem);
-						}
-					}
+					entityIds.computeIfAbsent(entityType, k -> new ArrayList<Long>()).add(entityId);
 				} else {
-					Long id = Long.parseLong(pair[0]);
-					for (CartItem cartItem : cart.getCartItems()) {
-						if (cartItem.getId().equals(id)) {
-							em.remove(cartItem);
-							break;
-						}
-					}
+					cartItemIds.add(Long.parseLong(pair[0]));
 				}
 			}
+			for (Entry<EntityType, List<Long>> entry : entityIds.entrySet()) {
+				removedCartItemIds.addAll(cartRepository.deleteCartItems(cart, entry.getKey(), entry.getValue()));
+			}
+			if (!cartItemIds.isEmpty()) {
+				removedCartItemIds.addAll(cartRepository.deleteCartItemsById(cart, cartItemIds));
+			}
 		}
 
 		em.flush();
 		em.refresh(cart);
 
 		if (cart.getCartItems().size() == 0) {
+			cartRepository.deleteCartChanges(cart);
 			em.remove(cart);
 			em.flush();
 			return emptyCart(facilityName, cartUserName);
 		}
+		cartRepository.recordChanges(cart, List.of(), removedCartItemIds, maxCartVersions);
+		cart.updateTotals();
+		em.flush();
 
 		return Response.ok().entity(cart).build();
 	}
@@ -774,6 +1254,8 @@ public class UserResource {
 			Long countLimit = facilityMap.getCountLimit(facilityName);
 			Long sizeLimit = facilityMap.getSizeLimit(facilityName);
 			if (countLimit != null || sizeLimit != null) {
+				// The totals maintained on the cart record the ICAT values when each item was
+				// added, which may since have changed, so recompute them before enforcing limits
 				List<Long> investigationIds = new ArrayList<>();
 				List<Long> datasetIds = new ArrayList<>();
 				List<Long> datafileIds = new ArrayList<>();
@@ -820,6 +1302,7 @@ public class UserResource {
 			downloadId = submitDownload(idsClient, download, downloadStatus);
 
 			try {
+				cartRepository.deleteCartChanges(cart);
 				em.remove(cart);
 				em.flush();
 			} catch (Exception e) {
@@ -875,7 +1358,10 @@ public class UserResource {
 	}
 
 	/**
-	 * Set the final fields and persist multiple Download requests.
+	 * Set the final fields and persist multiple Download requests. The IDS is
+	 * only asked whether it isTwoLevel once, and the Downloads are flushed
+	 * together so that their rows are inserted in JDBC batches. Nothing is
+	 * refreshed, as ids are allocated when each Download is persisted.
 	 * 
 	 * @param idsClient Client for the IDS to use for the Download
 	 * @param downloads Downloads to submit
@@ -884,49 +1370,56 @@ public class UserResource {
 	 * @throws TopcatException if unable to submit one of the Downloads
 	 */
 	private JsonArray submitDownloads(IdsClient idsClient, List<Download> downloads, String fileName) throws TopcatException {
-		long downloadId;
+		boolean isTwoLevel = idsClient.isTwoLevel();
 		JsonArrayBuilder jsonArrayBuilder = Json.createArrayBuilder();
 		int part = 1;
-		for (Download download : downloads) {
-			String partFilename = formatQueuedFilename(fileName, part, downloads.size());
-			download.setFileName(partFilename);
-			downloadId = submitDownload(idsClient, download, DownloadStatus.QUEUED);
-			jsonArrayBuilder.add(downloadId);
-			part += 1;
+		int unflushedItems = 0;
+		try {
+			for (Download download : downloads) {
+				String partFilename = formatQueuedFilename(fileName, part, downloads.size());
+				download.setFileName(partFilename);
+				// Stop the persistence context growing without limit for very large visits
+				unflushedItems += download.getDownloadItems().size();
+				setSubmittedFields(download, isTwoLevel, DownloadStatus.QUEUED);
+				em.persist(download);
+				jsonArrayBuilder.add(download.getId());
+				part += 1;
+
+				if (unflushedItems >= SUBMIT_FLUSH_SIZE) {
+					em.flush();
+					em.clear();
+					unflushedItems = 0;
+				}
+			}
+			em.flush();
+		} catch (Exception e) {
+			logger.info("submitDownloads: exception during EntityManager operations: " + e.getMessage());
+			throw new BadRequestException("Unable to submit for cart for download");
 		}
 		return jsonArrayBuilder.build();
 	}
 
 	/**
-	 * Set the final fields and persist a new Download request.
+	 * Set the final fields and persist a new Download request. The IDS is not
+	 * asked to prepare the data here, as this can take a long time for large
+	 * selections: Downloads which are PREPARING are prepared in the background by
+	 * StatusCheck.
 	 * 
 	 * @param idsClient      Client for the IDS to use for the Download
 	 * @param download       Download to submit
-	 * @param downloadStatus Initial DownloadStatus to set if and only if the IDS isTwoLevel
+	 * @param downloadStatus Initial DownloadStatus to set if and only if the IDS
+	 *                       isTwoLevel, otherwise the Download is PREPARING
 	 * @return Id of the new Download
 	 * @throws TopcatException
 	 */
 	private long submitDownload(IdsClient idsClient, Download download, DownloadStatus downloadStatus)
 			throws TopcatException {
 
-		Boolean isTwoLevel = idsClient.isTwoLevel();
-		download.setIsTwoLevel(isTwoLevel);
-
-		if (isTwoLevel) {
-			download.setStatus(downloadStatus);
-		} else {
-			logger.info("Requesting prepareData for Download " + download.getFileName() + " " + download.getId());
-			String preparedId = idsClient.prepareData(download.getSessionId(), download.getInvestigationIds(),
-					download.getDatasetIds(), download.getDatafileIds());
-			logger.info("Received preparedId " + preparedId + " for Download " + download.getFileName() + " " + download.getId());
-			download.setPreparedId(preparedId);
-			download.setStatus(DownloadStatus.COMPLETE);
-		}
+		setSubmittedFields(download, idsClient.isTwoLevel(), downloadStatus);
 
 		try {
 			em.persist(download);
 			em.flush();
-			em.refresh(download);
 			return download.getId();
 		} catch (Exception e) {
 			logger.info("submitCart: exception during EntityManager operations: " + e.getMessage());
@@ -934,6 +1427,27 @@ public class UserResource {
 		}
 	}
 
+	/**
+	 * Set the status of a Download being submitted, and if download.compactItems
+	 * is enabled replace its DownloadItems with the compact encoded form.
+	 * 
+	 * @param download       Download being submitted
+	 * @param isTwoLevel     Whether the IDS for the Download isTwoLevel
+	 * @param downloadStatus Initial DownloadStatus to set if and only if the IDS
+	 *                       isTwoLevel, otherwise the Download is PREPARING
+	 */
+	private void setSubmittedFields(Download download, boolean isTwoLevel, DownloadStatus downloadStatus) {
+		if (compactDownloadItems) {
+			download.compactDownloadItems();
+		}
+		download.setIsTwoLevel(isTwoLevel);
+		if (isTwoLevel) {
+			download.setStatus(downloadStatus);
+		} else {
+			download.setStatus(DownloadStatus.PREPARING);
+		}
+	}
+
 	/**
 	 * Queue an entire visit for download, split by Dataset into part Downloads if
 	 * needed.
@@ -1227,13 +1741,97 @@ public class UserResource {
 		@QueryParam("entityId") Long entityId) throws TopcatException {
 
 		String idsUrl = getIdsUrl( facilityName );
-		IdsClient idsClient = new IdsClient(idsUrl);
+		IdsClient idsClient = new IdsClient(idsUrl, facilityName);
+		SizeProvider sizeProvider = new SizeProvider(facilityName, sessionId, idsClient);
 
-		Long size = idsClient.getSize(cacheRepository, sessionId, entityType, entityId);
+		Long size = sizeProvider.getSize(cacheRepository, entityType, entityId);
 
 		return Response.ok().entity(size.toString()).build();
 	}
 
+	/**
+	 * Retrieves the total file size (in bytes) of each of a list of investigations,
+	 * datasets or datafiles. Sizes which can be read from ICAT (if so configured) or
+	 * have already been cached are returned immediately, and the remainder are
+	 * calculated in parallel.
+	 *
+	 * @summary getSizes
+	 *
+	 * @param facilityName
+	 *            a facility name - properties must map this to a url to a valid ICAT REST api.
+	 * 
+	 * @param sessionId
+	 *            a valid session id which takes the form
+	 *            <code>0d9a3706-80d4-4d29-9ff3-4d65d4308a24</code>
+	 *
+	 * @param entities
+	 *            a list of entity type (i.e. datafile, dataset or
+	 *            investigation) and entity id pairs, in the form: investigation
+	 *            2, dataset 1.
+	 *
+	 * @return JsonArray of objects with "entityType", "entityId" and "size" for
+	 *         each distinct entity requested, in the order requested
+	 * 
+	 * @throws TopcatException
+	 *             if the entities cannot be parsed or exceed getSize.maxEntities,
+	 *             or if anything else goes wrong.
+	 */
+	@POST
+	@Path("/getSizes")
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Response getSizes(
+		@FormParam("facilityName") String facilityName,
+		@FormParam("sessionId") String sessionId,
+		@FormParam("entities") String entities) throws TopcatException {
+
+		String icatUrl = DownloadBuilder.getIcatUrl(facilityName);
+		new IcatClient(icatUrl, sessionId).getUserName();
+		IdsClient idsClient = new IdsClient(getIdsUrl(facilityName), facilityName);
+		SizeProvider sizeProvider = new SizeProvider(facilityName, sessionId, idsClient);
+
+		Set<Entry<String, Long>> entitySet = parseEntities(entities);
+		if (entitySet.size() > maxSizeEntities) {
+			throw new BadRequestException("Cannot get the size of more than " + maxSizeEntities + " entities at once");
+		}
+
+		Map<Entry<String, Long>, Long> sizes = sizeProvider.getSizes(cacheRepository, entitySet, executorService);
+
+		JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+		for (Entry<String, Long> entity : entitySet) {
+			JsonObjectBuilder objectBuilder = Json.createObjectBuilder();
+			objectBuilder.add("entityType", entity.getKey());
+			objectBuilder.add("entityId", entity.getValue());
+			objectBuilder.add("size", sizes.get(entity));
+			arrayBuilder.add(objectBuilder);
+		}
+		return Response.ok(arrayBuilder.build()).build();
+	}
+
+	/**
+	 * @param entities String in the form: investigation 2, dataset 1
+	 * @return Distinct pairs of entity type and id, in the order given
+	 * @throws BadRequestException if an entity type or id is not recognised
+	 */
+	private static Set<Entry<String, Long>> parseEntities(String entities) throws BadRequestException {
+		Set<Entry<String, Long>> entitySet = new LinkedHashSet<>();
+		if (entities == null || entities.isBlank()) {
+			return entitySet;
+		}
+		for (String item : entities.trim().split("\\s*,\\s*")) {
+			String[] pair = item.split("\\s+");
+			if (pair.length != 2 || !List.of("investigation", "dataset", "datafile").contains(pair[0])) {
+				throw new BadRequestException("Could not parse entity \"" + item + "\"");
+			}
+			try {
+				entitySet.add(Map.entry(pair[0], Long.valueOf(pair[1])));
+			} catch (NumberFormatException e) {
+				throw new BadRequestException("Could not parse entity \"" + item + "\"");
+			}
+		}
+		return entitySet;
+	}
+
+
 	/**
 	 * Get details of all DownloadTypes the user (identified by sessionId) is allowed
 	 * to use.
@@ -35,12 +35,15 @@ import org.icatproject.topcat.httpclient.HttpClient;
 import org.icatproject.topcat.domain.Download;
 import org.icatproject.topcat.domain.DownloadStatus;
 import org.icatproject.topcat.domain.DownloadType;
+import org.icatproject.topcat.exceptions.BadRequestException;
 import org.icatproject.topcat.exceptions.ForbiddenException;
+import org.icatproject.topcat.repository.CacheEpochRepository;
 import org.icatproject.topcat.repository.CacheRepository;
 import org.icatproject.topcat.repository.ConfVarRepository;
 import org.icatproject.topcat.repository.DownloadRepository;
 import org.icatproject.topcat.repository.DownloadTypeRepository;
 import org.icatproject.topcat.web.rest.AdminResource;
+import org.icatproject.topcat.web.rest.DownloadPage;
 
 @ArquillianTest
 public class AdminResourceTest {
@@ -53,7 +56,7 @@ public class AdminResourceTest {
 	@Deployment
 	public static JavaArchive createDeployment() {
 		return ShrinkWrap.create(JavaArchive.class)
-				.addClasses(AdminResource.class, CacheRepository.class, DownloadRepository.class,
+				.addClasses(AdminResource.class, CacheRepository.class, CacheEpochRepository.class, DownloadRepository.class, DownloadPage.class,
 						DownloadTypeRepository.class, ConfVarRepository.class)
 				.addPackages(true, "org.icatproject.topcat.domain", "org.icatproject.topcat.exceptions")
 				.addAsResource("META-INF/persistence.xml")
@@ -417,7 +420,7 @@ public class AdminResourceTest {
 		String entityType = "dataset";
 		Long id = 3L;
 		Long size = 150L;
-		String key = "getSize:" + entityType + ":" + id;
+		String key = "getSize:" + facilityName + ":" + entityType + ":" + id;
 		Response response;
 
 		// Set a dummy size (this will overwrite any existing cached value!)
@@ -442,6 +445,77 @@ public class AdminResourceTest {
 		}
 	}
 
+	@Test
+	public void testClearCachedSizes() throws Exception {
+		String facilityName = "LILS";
+		cacheRepository.put("getSize:" + facilityName + ":dataset:1", 1L);
+		cacheRepository.put("getSize:" + facilityName + ":datafile:1", 1L);
+		cacheRepository.put("getSize:OTHER:dataset:1", 1L);
+
+		Response response = adminResource.clearCachedSizes("dataset", facilityName, adminSessionId);
+		assertEquals(200, response.getStatus());
+		JsonObject jsonObject = Utils.parseJsonObject(response.getEntity().toString());
+		assertTrue(jsonObject.getInt("removed") >= 1);
+		assertNull(cacheRepository.get("getSize:" + facilityName + ":dataset:1"));
+		assertEquals(1L, cacheRepository.get("getSize:" + facilityName + ":datafile:1"));
+
+		response = adminResource.clearCachedSizes(null, facilityName, adminSessionId);
+		assertEquals(200, response.getStatus());
+		assertNull(cacheRepository.get("getSize:" + facilityName + ":datafile:1"));
+		assertEquals(1L, cacheRepository.get("getSize:OTHER:dataset:1"));
+		cacheRepository.remove("getSize:OTHER:dataset:1");
+
+		assertThrows(ForbiddenException.class,
+				() -> adminResource.clearCachedSizes(null, facilityName, nonAdminSessionId));
+	}
+
+	@Test
+	public void testClearCachedPrefix() throws Exception {
+		String facilityName = "LILS";
+		cacheRepository.put("test:prefix:1", 1L);
+		cacheRepository.put("test:prefix:2", 2L);
+		cacheRepository.put("test:other", 3L);
+
+		Response response = adminResource.clearCachedPrefix("test:prefix:", facilityName, adminSessionId);
+		assertEquals(200, response.getStatus());
+		JsonObject jsonObject = Utils.parseJsonObject(response.getEntity().toString());
+		assertEquals(2, jsonObject.getInt("removed"));
+		assertNull(cacheRepository.get("test:prefix:1"));
+		assertNull(cacheRepository.get("test:prefix:2"));
+		assertEquals(3L, cacheRepository.get("test:other"));
+		cacheRepository.remove("test:other");
+
+		assertThrows(BadRequestException.class, () -> adminResource.clearCachedPrefix("", facilityName, adminSessionId));
+		assertThrows(ForbiddenException.class,
+				() -> adminResource.clearCachedPrefix("test:", facilityName, nonAdminSessionId));
+	}
+
+	@Test
+	public void testClearMemoryCaches() throws Exception {
+		String facilityName = "LILS";
+		String key = "test:memory";
+		cacheRepository.put(key, 1L);
+
+		Response response = adminResource.clearMemoryCaches("cache", facilityName, adminSessionId);
+		assertEquals(200, response.getStatus());
+		// Only the memory tier is cleared, so the value is still read from the database
+		assertEquals(1L, cacheRepository.get(key));
+		cacheRepository.remove(key);
+
+		response = adminResource.clearMemoryCaches(null, facilityName, adminSessionId);
+		assertEquals(200, response.getStatus());
+
+		IdsCapabilityCache.getInstance().putIsTwoLevel("https://ids.example.com", true);
+		response = adminResource.clearMemoryCaches("idsCapabilities", facilityName, adminSessionId);
+		assertEquals(200, response.getStatus());
+		assertNull(IdsCapabilityCache.getInstance().getIsTwoLevel("https://ids.example.com"));
+
+		assertThrows(BadRequestException.class,
+				() -> adminResource.clearMemoryCaches("unknown", facilityName, adminSessionId));
+		assertThrows(ForbiddenException.class,
+				() -> adminResource.clearMemoryCaches(null, facilityName, nonAdminSessionId));
+	}
+
 	@Test
 	public void testSetConfVar() throws Exception {
 
@@ -0,0 +1,46 @@
+package org.icatproject.topcat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class CacheRegistryTest {
+
+    @Test
+    public void testInvalidate() {
+        CacheRegistry registry = new CacheRegistry();
+        AtomicInteger cleared = new AtomicInteger();
+        registry.register("test", cleared::incrementAndGet);
+        assertTrue(registry.getRegions().contains("test"));
+
+        assertTrue(registry.invalidate("test"));
+        assertEquals(1, cleared.get());
+        assertFalse(registry.invalidate("unknown"));
+        assertEquals(1, cleared.get());
+    }
+
+    @Test
+    public void testRegisterReplaces() {
+        CacheRegistry registry = new CacheRegistry();
+        AtomicInteger first = new AtomicInteger();
+        AtomicInteger second = new AtomicInteger();
+        registry.register("test", first::incrementAndGet);
+        registry.register("test", second::incrementAndGet);
+
+        registry.invalidate("test");
+        assertEquals(0, first.get());
+        assertEquals(1, second.get());
+    }
+
+    @Test
+    public void testRegions() {
+        // Regions are known whether or not their cache has been used yet
+        assertTrue(CacheRegistry.isRegion("priority"));
+        assertTrue(CacheRegistry.isRegion("groupings"));
+        assertFalse(CacheRegistry.isRegion("unknown"));
+    }
+}
@@ -1,5 +1,9 @@
 package org.icatproject.topcat;
 
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
 import jakarta.inject.Inject;
 
 import org.jboss.arquillian.container.test.api.Deployment;
@@ -14,6 +18,7 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import org.junit.jupiter.api.Test;
 
 import org.icatproject.topcat.domain.Cache;
+import org.icatproject.topcat.repository.CachePruner;
 import org.icatproject.topcat.repository.CacheRepository;
 
 @ArquillianTest
@@ -22,7 +27,7 @@ public class CacheRepositoryTest {
     @Deployment
     public static JavaArchive createDeployment() {
         return ShrinkWrap.create(JavaArchive.class)
-            .addClasses(CacheRepository.class, Cache.class)
+            .addClasses(CacheRepository.class, CachePruner.class, Cache.class)
             .addAsResource("META-INF/persistence.xml")
             .addAsManifestResource(EmptyAsset.INSTANCE, "beans.xml");
     }
@@ -30,6 +35,9 @@ public class CacheRepositoryTest {
     @Inject
 	private CacheRepository cacheRepository;
 
+    @Inject
+	private CachePruner cachePruner;
+
 	@Test
 	public void testPutAndGet() throws Exception {
 		cacheRepository.put("test:1", "Hello World!");
@@ -43,4 +51,104 @@ public class CacheRepositoryTest {
 		cacheRepository.remove(key);
 		assertNull(cacheRepository.get(key));
 	}
+
+	@Test
+	public void testPutOverwrites() {
+		String key = "test:overwrite";
+		cacheRepository.put(key, 1L);
+		assertEquals(1L, cacheRepository.get(key));
+		cacheRepository.put(key, 2L);
+		assertEquals(2L, cacheRepository.get(key));
+		cacheRepository.remove(key);
+	}
+
+	@Test
+	public void testPutChangesValueType() {
+		String key = "test:type";
+		cacheRepository.put(key, 1L);
+		cacheRepository.put(key, "Hello World");
+		assertEquals("Hello World", cacheRepository.get(key));
+		cacheRepository.put(key, 2L);
+		assertEquals(2L, cacheRepository.get(key));
+		cacheRepository.remove(key);
+	}
+
+	@Test
+	public void testFlushAccessTimes() {
+		String key = "test:flush";
+		cacheRepository.put(key, "Hello World");
+		cacheRepository.get(key);
+		cacheRepository.flushAccessTimes();
+		assertEquals("Hello World", cacheRepository.get(key));
+		cacheRepository.remove(key);
+	}
+
+	@Test
+	public void testDeleteBatch() {
+		cacheRepository.put("test:batch:1", 1L);
+		cacheRepository.put("test:batch:2", 2L);
+		assertEquals(1, cacheRepository.deleteBatch(List.of("test:batch:1")));
+		assertNull(cacheRepository.get("test:batch:1"));
+		assertEquals(2L, cacheRepository.get("test:batch:2"));
+		cacheRepository.remove("test:batch:2");
+	}
+
+	@Test
+	public void testGetExistingKeys() {
+		cacheRepository.put("test:existing:1", 1L);
+		try {
+			assertEquals(Set.of("test:existing:1"),
+					cacheRepository.getExistingKeys(List.of("test:existing:1", "test:existing:2")));
+			assertEquals(Set.of(), cacheRepository.getExistingKeys(List.of()));
+		} finally {
+			cacheRepository.remove("test:existing:1");
+		}
+	}
+
+	@Test
+	public void testPruneBelowMaxCacheSize() {
+		String key = "test:prune";
+		cacheRepository.put(key, "Hello World");
+		cachePruner.prune();
+		assertEquals("Hello World", cacheRepository.get(key));
+		cacheRepository.remove(key);
+	}
+
+	@Test
+	public void testPruneKeepsEntriesWithTiedAccessTimes() {
+		Properties properties = Properties.getInstance();
+		// These entries are accessed last, so all other entries are beyond the limit
+		properties.setProperty("maxCacheSize", "2");
+		try {
+			for (int i = 1; i <= 3; i++) {
+				cacheRepository.put("test:prune:tie:" + i, (long) i);
+				cacheRepository.get("test:prune:tie:" + i);
+			}
+			// All three are given the same lastAccessTime, but only one is beyond the limit
+			cacheRepository.flushAccessTimes();
+			cachePruner.prune();
+			assertNull(cacheRepository.get("test:prune:tie:1"));
+			assertEquals(2L, cacheRepository.get("test:prune:tie:2"));
+			assertEquals(3L, cacheRepository.get("test:prune:tie:3"));
+		} finally {
+			properties.remove("maxCacheSize");
+			for (int i = 1; i <= 3; i++) {
+				cacheRepository.remove("test:prune:tie:" + i);
+			}
+		}
+	}
+
+	@Test
+	public void testGetKeysAccessedSince() {
+		cacheRepository.put("test:accessed:1", 1L);
+		cacheRepository.get("test:accessed:1");
+		Date future = new Date(new Date().getTime() + 60000);
+		Date past = new Date(new Date().getTime() - 60000);
+
+		List<String> keys = cacheRepository.getKeysAccessedSince("test:accessed:", past, future, 10);
+		assertEquals(List.of("test:accessed:1"), keys);
+		assertEquals(0, cacheRepository.getKeysAccessedSince("test:accessed:", past, past, 10).size());
+		assertEquals(0, cacheRepository.getKeysAccessedSince("test:other:", past, future, 10).size());
+		cacheRepository.remove("test:accessed:1");
+	}
 }
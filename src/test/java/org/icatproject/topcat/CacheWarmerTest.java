@@ -0,0 +1,111 @@
+package org.icatproject.topcat;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jakarta.ejb.EJB;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit5.container.annotation.ArquillianTest;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.icatproject.topcat.httpclient.HttpClient;
+import org.icatproject.topcat.repository.CacheRepository;
+
+@ArquillianTest
+public class CacheWarmerTest {
+
+	@Deployment
+	public static JavaArchive createDeployment() {
+		return ShrinkWrap.create(JavaArchive.class)
+				.addClasses(CacheWarmer.class, CacheRepository.class, IdsClient.class)
+				.addPackages(true, "org.icatproject.topcat.domain", "org.icatproject.topcat.exceptions")
+				.addAsResource("META-INF/persistence.xml")
+				.addAsManifestResource(EmptyAsset.INSTANCE, "beans.xml");
+	}
+
+	private class MockIdsClient extends IdsClient {
+
+		// Entities sized by this client, in the form "<entityType> <entityId>"
+		public List<String> sized = new ArrayList<>();
+
+		public MockIdsClient(String url, String facilityName) {
+			super(url, facilityName);
+		}
+
+		// Mock overrides
+
+		public Long getSize(CacheRepository cacheRepository, String sessionId, String entityType, Long entityId) {
+			sized.add(entityType + " " + entityId);
+			cacheRepository.put(getSizeKey("LILS", entityType, entityId), 26L);
+			return 26L;
+		}
+	}
+
+	@EJB
+	private CacheRepository cacheRepository;
+
+	@EJB
+	private CacheWarmer cacheWarmer;
+
+	private static String sessionId;
+
+	@BeforeAll
+	public static void beforeAll() {
+		TestHelpers.installTrustManager();
+	}
+
+	@BeforeEach
+	public void setup() throws Exception {
+		HttpClient httpClient = new HttpClient("https://localhost:8181/icat");
+		String data = "json=" + URLEncoder.encode(
+				"{\"plugin\":\"simple\", \"credentials\":[{\"username\":\"root\"}, {\"password\":\"pw\"}]}", "UTF8");
+		String response = httpClient.post("session", new HashMap<String, String>(), data).toString();
+		sessionId = Utils.parseJsonObject(response).getString("sessionId");
+	}
+
+	@Test
+	public void testWarmFacilityPagesPastCachedEntities() throws Exception {
+		Properties properties = Properties.getInstance();
+		String propertyRoot = "facility.LILS.sizeWarmer.";
+		// Look back far enough to include all the test data
+		properties.setProperty(propertyRoot + "lookbackSeconds", String.valueOf(100L * 365 * 86400));
+		properties.setProperty(propertyRoot + "maxPerRun", "2");
+		MockIdsClient mockIdsClient = new MockIdsClient("DummyUrl", "LILS");
+		try {
+			assertEquals(2, cacheWarmer.warmFacility("LILS", sessionId, mockIdsClient));
+			assertEquals(2, mockIdsClient.sized.size());
+
+			// The entities sized by the first run are cached, so the second run
+			// should size different ones rather than stopping at the cached ids
+			assertEquals(2, cacheWarmer.warmFacility("LILS", sessionId, mockIdsClient));
+			assertEquals(4, mockIdsClient.sized.size());
+			Set<String> distinct = new HashSet<>(mockIdsClient.sized);
+			assertEquals(4, distinct.size());
+			for (String candidate : distinct) {
+				String[] pair = candidate.split(" ");
+				assertNotNull(mockIdsClient.getCachedSize(cacheRepository, pair[0], Long.valueOf(pair[1])));
+			}
+		} finally {
+			properties.remove(propertyRoot + "lookbackSeconds");
+			properties.remove(propertyRoot + "maxPerRun");
+			for (String candidate : mockIdsClient.sized) {
+				String[] pair = candidate.split(" ");
+				cacheRepository.remove(IdsClient.getSizeKey("LILS", pair[0], Long.valueOf(pair[1])));
+			}
+		}
+	}
+}
@@ -2,9 +2,12 @@ package org.icatproject.topcat;
 
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import jakarta.ejb.EJB;
 import jakarta.json.Json;
@@ -19,6 +22,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.BeforeAll;
@@ -65,6 +69,32 @@ public class IcatClientTest {
 		assertEquals("simple/root", icatClient.getUserName());
 	}
 
+	@Test
+	public void testSetSessionIdResetsUserName() throws Exception {
+		IcatClient icatClient = new IcatClient("https://localhost:8181", sessionId);
+		assertEquals("simple/root", icatClient.getUserName());
+		assertEquals("simple/root", icatClient.getUserName());
+
+		icatClient.setSessionId("bogus-session-id");
+		assertThrows(TopcatException.class, () -> icatClient.getUserName());
+	}
+
+	@Test
+	public void testGetDatafilesMissingCached() throws Exception {
+		IcatClient icatClient = new IcatClient("https://localhost:8181", sessionId);
+		String location = icatClient.getEntity("datafile").getString("location");
+		List<String> files = List.of("missing/location", location);
+
+		IcatClient.DatafilesResponse response = icatClient.getDatafiles(files);
+		assertEquals(1, response.ids.size());
+		assertEquals(Set.of("missing/location"), response.missing);
+
+		// The missing location is now served from the negative cache
+		response = icatClient.getDatafiles(files);
+		assertEquals(1, response.ids.size());
+		assertEquals(Set.of("missing/location"), response.missing);
+	}
+
 	@Test
 	public void testIsAdmin() throws Exception {
 		IcatClient icatClient = new IcatClientUserIsAdmin("https://localhost:8181", sessionId);
@@ -266,6 +296,32 @@ public class IcatClientTest {
 		}
 	}
 
+	@Test
+	public void testGetFileSizes() throws Exception {
+		IcatClient icatClient = new IcatClient("https://localhost:8181", sessionId);
+		List<Long> datasetIds = new ArrayList<>();
+		for (JsonObject dataset : icatClient.getEntities("dataset", 3L)) {
+			datasetIds.add(dataset.getJsonNumber("id").longValueExact());
+		}
+		datasetIds.add(-1L);
+
+		Map<Long, Long> fileSizes = icatClient.getFileSizes("dataset", datasetIds);
+		assertFalse(fileSizes.containsKey(-1L));
+		for (Entry<Long, Long> fileSize : fileSizes.entrySet()) {
+			assertEquals(icatClient.getDatasetFileSize(fileSize.getKey()), fileSize.getValue().longValue());
+		}
+	}
+
+	@Test
+	public void testGetRecentEntityIds() throws TopcatException {
+		IcatClient icatClient = new IcatClient("https://localhost:8181", sessionId);
+		List<Long> ids = icatClient.getRecentEntityIds("dataset", new Date(0), 0, 2);
+		assertEquals(2, ids.size());
+		List<Long> nextIds = icatClient.getRecentEntityIds("dataset", new Date(0), 1, 2);
+		assertEquals(ids.get(1), nextIds.get(0));
+		assertEquals(0, icatClient.getRecentEntityIds("investigation", new Date(new Date().getTime() + 86400000L), 0, 2).size());
+	}
+
 	@Test
 	public void testGetDatasetFileCount() throws TopcatException {
 		IcatClient icatClient = new IcatClient("https://localhost:8181", sessionId);
@@ -0,0 +1,72 @@
+package org.icatproject.topcat;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.icatproject.topcat.domain.Download;
+import org.icatproject.topcat.domain.DownloadItem;
+import org.icatproject.topcat.domain.EntityType;
+import org.icatproject.topcat.domain.IdArrayCodec;
+import org.junit.jupiter.api.Test;
+
+public class IdArrayCodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        long[] ids = { 5L, 1L, 300L, Long.MAX_VALUE, 0L, 128L, 129L };
+        long[] sorted = { 0L, 1L, 5L, 128L, 129L, 300L, Long.MAX_VALUE };
+        assertArrayEquals(sorted, IdArrayCodec.decode(IdArrayCodec.encode(ids)));
+        assertArrayEquals(new long[0], IdArrayCodec.decode(IdArrayCodec.encode(new long[0])));
+        assertArrayEquals(new long[0], IdArrayCodec.decode(null));
+    }
+
+    @Test
+    public void testConsecutiveIdsAreCompact() {
+        long[] ids = new long[10000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1000000L + i;
+        }
+        byte[] encoded = IdArrayCodec.encode(ids);
+        // The count and first id take a few bytes, then one byte per id
+        assertTrue(encoded.length < ids.length + 8);
+        assertArrayEquals(ids, IdArrayCodec.decode(encoded));
+    }
+
+    @Test
+    public void testNegativeIdRejected() {
+        assertThrows(IllegalArgumentException.class, () -> IdArrayCodec.encode(new long[] { 1L, -1L }));
+    }
+
+    @Test
+    public void testCompactDownloadItems() {
+        Download download = new Download();
+        List<DownloadItem> downloadItems = new ArrayList<DownloadItem>();
+        downloadItems.add(createDownloadItem(download, EntityType.datafile, 3L));
+        downloadItems.add(createDownloadItem(download, EntityType.dataset, 2L));
+        downloadItems.add(createDownloadItem(download, EntityType.datafile, 1L));
+        download.setDownloadItems(downloadItems);
+        assertFalse(download.isCompact());
+
+        download.compactDownloadItems();
+        assertTrue(download.isCompact());
+        assertEquals(0, download.getDownloadItems().size());
+        assertArrayEquals(new long[0], download.getInvestigationIdArray());
+        assertArrayEquals(new long[] { 2L }, download.getDatasetIdArray());
+        assertArrayEquals(new long[] { 1L, 3L }, download.getDatafileIdArray());
+        assertEquals(List.of(1L, 3L), download.getDatafileIds());
+    }
+
+    private DownloadItem createDownloadItem(Download download, EntityType entityType, long entityId) {
+        DownloadItem downloadItem = new DownloadItem();
+        downloadItem.setDownload(download);
+        downloadItem.setEntityType(entityType);
+        downloadItem.setEntityId(entityId);
+        return downloadItem;
+    }
+}
@@ -1,13 +1,23 @@
 package org.icatproject.topcat;
 
+import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import org.icatproject.topcat.exceptions.BadRequestException;
+import org.icatproject.topcat.repository.CacheRepository;
 import org.junit.jupiter.api.Test;
 
 public class IdsClientTest {
@@ -82,6 +92,74 @@ public class IdsClientTest {
 		assertEquals(parseTimeout.invoke(idsClient, "rubbish"), -1);
 	}
 
+	@Test
+	public void testGetSizeSharesInFlightComputation() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+		IdsClient idsClient = new IdsClient("https://localhost:8181") {
+			@Override
+			public Long getSize(String sessionId, List<Long> investigationIds, List<Long> datasetIds, List<Long> datafileIds) {
+				calls.incrementAndGet();
+				started.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return 42L;
+			}
+		};
+		CacheRepository cacheRepository = new CacheRepository() {
+			@Override
+			public Object get(String key, Long seconds) {
+				return null;
+			}
+
+			@Override
+			public void put(String key, Serializable value) {
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Long> first = executor.submit(() -> idsClient.getSize(cacheRepository, "sessionId", "dataset", 1L));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			Future<Long> second = executor.submit(() -> idsClient.getSize(cacheRepository, "sessionId", "dataset", 1L));
+			// Only release the first request once the second is waiting for its result
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (idsClient.getInFlightWaiters("dataset", 1L) == 0) {
+				assertTrue(System.nanoTime() < deadline, "Second request did not wait for the first");
+				Thread.onSpinWait();
+			}
+			release.countDown();
+			assertEquals(42L, first.get(10, TimeUnit.SECONDS));
+			assertEquals(42L, second.get(10, TimeUnit.SECONDS));
+			assertEquals(1, calls.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testIsTwoLevelCached() throws Exception {
+		// Nothing listens on this url, so isTwoLevel can only succeed from the cache
+		String url = "https://localhost:1";
+		IdsClient idsClient = new IdsClient(url);
+		IdsCapabilityCache capabilityCache = IdsCapabilityCache.getInstance();
+		try {
+			capabilityCache.putIsTwoLevel(url, true);
+			assertTrue(idsClient.isTwoLevel());
+			capabilityCache.putIsTwoLevel(url, false);
+			assertFalse(idsClient.isTwoLevel());
+
+			capabilityCache.clear();
+			assertThrows(BadRequestException.class, () -> idsClient.isTwoLevel());
+		} finally {
+			capabilityCache.clear();
+		}
+	}
+
 	private List<Long> generateIds(int offset, int count){
 		List<Long> out = new ArrayList<Long>();
 
@@ -0,0 +1,38 @@
+package org.icatproject.topcat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.icatproject.topcat.exceptions.NotFoundException;
+import org.icatproject.topcat.exceptions.TopcatException;
+import org.junit.jupiter.api.Test;
+
+public class NegativeCacheTest {
+
+    @Test
+    public void testGetCreatesNewException() {
+        NegativeCache cache = new NegativeCache();
+        NotFoundException exception = new NotFoundException("Not found");
+        cache.put("url", "sessionId", "request", exception);
+
+        TopcatException first = cache.get("url", "sessionId", "request");
+        TopcatException second = cache.get("url", "sessionId", "request");
+        assertTrue(first instanceof NotFoundException);
+        assertEquals(exception.getMessage(), first.getMessage());
+        assertNotSame(exception, first);
+        assertNotSame(first, second);
+        assertNull(cache.get("url", "otherSessionId", "request"));
+    }
+
+    @Test
+    public void testGetBaseException() {
+        NegativeCache cache = new NegativeCache();
+        cache.put("url", "sessionId", "request", new TopcatException(403, "Forbidden"));
+
+        TopcatException cached = cache.get("url", "sessionId", "request");
+        assertEquals(403, cached.getHttpStatusCode());
+        assertEquals("Forbidden", cached.getShortMessage());
+    }
+}
@@ -7,6 +7,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
+import java.util.List;
 
 import org.icatproject.topcat.exceptions.ForbiddenException;
 import org.icatproject.topcat.exceptions.InternalException;
@@ -44,6 +45,39 @@ public class PriorityMapTest {
         assertEquals(expected, mapping.get(1));
     }
 
+    @Test
+    public void testGetCombinedCondition() throws InternalException, NoSuchMethodException, NoSuchFieldException,
+            SecurityException, IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+        PriorityMap priorityMap = new PriorityMap();
+        Field field = PriorityMap.class.getDeclaredField("defaultPriority");
+        field.setAccessible(true);
+        field.setInt(priorityMap, 4);
+        Method method = PriorityMap.class.getDeclaredMethod("parseObject", String.class, String.class);
+        method.setAccessible(true);
+
+        String objectString = "{\"ABC\": 1, \"DEF\": 3, \"GHI\": 2}";
+        String conditionPrefix = "EXISTS ( SELECT o FROM InstrumentScientist o WHERE o.instrument.name='";
+        method.invoke(priorityMap, objectString, conditionPrefix);
+
+        assertEquals(List.of(1, 2, 3), priorityMap.getQueryLevels());
+        String abc = "(" + conditionPrefix + "ABC' AND o.user=user ))";
+        String ghi = "(" + conditionPrefix + "GHI' AND o.user=user ))";
+        String def = "(" + conditionPrefix + "DEF' AND o.user=user ))";
+        assertEquals(null, priorityMap.getCombinedCondition(0));
+        assertEquals(abc, priorityMap.getCombinedCondition(1));
+        assertEquals(abc + " OR " + ghi, priorityMap.getCombinedCondition(2));
+        assertEquals(abc + " OR " + ghi + " OR " + def, priorityMap.getCombinedCondition(3));
+    }
+
+    @Test
+    public void testCachePriority() throws InternalException {
+        PriorityMap priorityMap = new PriorityMap();
+        assertEquals(null, priorityMap.getCachedPriority("https://localhost:8181", "simple/test"));
+        priorityMap.cachePriority("https://localhost:8181", "simple/test", 1);
+        assertEquals(1, priorityMap.getCachedPriority("https://localhost:8181", "simple/test").intValue());
+        assertEquals(null, priorityMap.getCachedPriority("https://example.com", "simple/test"));
+    }
+
     @Test
     public void testCheckAnonDownloadEnabled() throws NoSuchFieldException, SecurityException, IllegalArgumentException, IllegalAccessException {
         PriorityMap priorityMap = new PriorityMap();
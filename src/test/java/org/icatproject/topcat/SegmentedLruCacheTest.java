@@ -0,0 +1,86 @@
+package org.icatproject.topcat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+public class SegmentedLruCacheTest {
+
+    @Test
+    public void testPutAndGet() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<>(10);
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        assertEquals("1", cache.get("a"));
+        cache.put("a", "2");
+        assertEquals("2", cache.get("a"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testProtectedEntriesSurviveScan() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<>(5);
+        cache.put("hot", "1");
+        // A second access promotes the entry out of probation
+        cache.get("hot");
+        for (int i = 0; i < 20; i++) {
+            cache.put("cold" + i, Integer.toString(i));
+        }
+        assertEquals(5, cache.size());
+        assertEquals("1", cache.get("hot"));
+        assertNull(cache.get("cold0"));
+        assertEquals("19", cache.get("cold19"));
+    }
+
+    @Test
+    public void testDemotion() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<>(5);
+        // Protected segment holds 4 entries, so promoting a 5th demotes "a"
+        for (String key : new String[] { "a", "b", "c", "d", "e" }) {
+            cache.put(key, key);
+            cache.get(key);
+        }
+        assertEquals(5, cache.size());
+        cache.put("f", "f");
+        assertEquals(5, cache.size());
+        assertNull(cache.get("a"));
+        assertEquals("e", cache.get("e"));
+    }
+
+    @Test
+    public void testRemove() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<>(10);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("b");
+        cache.remove("a");
+        cache.remove("b");
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRemoveKeysIf() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<>(10);
+        cache.put("a:1", "1");
+        cache.put("a:2", "2");
+        cache.put("b:1", "3");
+        // Promote one matching entry so both segments are checked
+        cache.get("a:1");
+        assertEquals(2, cache.removeKeysIf(key -> key.startsWith("a:")));
+        assertNull(cache.get("a:1"));
+        assertNull(cache.get("a:2"));
+        assertEquals("3", cache.get("b:1"));
+    }
+
+    @Test
+    public void testDisabled() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<>(0);
+        assertFalse(cache.isEnabled());
+        cache.put("a", "1");
+        assertNull(cache.get("a"));
+    }
+}
@@ -0,0 +1,104 @@
+package org.icatproject.topcat;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.icatproject.topcat.exceptions.InternalException;
+import org.icatproject.topcat.repository.CacheRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class SizeProviderTest {
+
+	@AfterEach
+	public void tearDown() {
+		Properties properties = Properties.getInstance();
+		properties.remove("getSize.maxParallel");
+		properties.remove("getSize.timeoutSeconds");
+	}
+
+	@Test
+	public void testGetSizesLimitsParallelism() throws Exception {
+		Properties.getInstance().setProperty("getSize.maxParallel", "2");
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		IdsClient idsClient = new IdsClient("https://localhost:8181") {
+			@Override
+			public Long getCachedSize(CacheRepository cacheRepository, String entityType, Long entityId) {
+				return null;
+			}
+
+			@Override
+			public Long getSize(CacheRepository cacheRepository, String sessionId, String entityType, Long entityId) {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+				return entityId;
+			}
+		};
+		Set<Entry<String, Long>> entities = new LinkedHashSet<>();
+		for (long i = 1; i <= 10; i++) {
+			entities.add(Map.entry("dataset", i));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+		try {
+			SizeProvider sizeProvider = new SizeProvider("LILS", "sessionId", idsClient);
+			Map<Entry<String, Long>, Long> sizes = sizeProvider.getSizes(null, entities, executor);
+			assertEquals(10, sizes.size());
+			for (long i = 1; i <= 10; i++) {
+				assertEquals(i, sizes.get(Map.entry("dataset", i)));
+			}
+			assertTrue(maxRunning.get() <= 2, "At most 2 sizes should be calculated at once");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testGetSizesTimesOut() throws Exception {
+		Properties.getInstance().setProperty("getSize.timeoutSeconds", "0");
+		CountDownLatch release = new CountDownLatch(1);
+		IdsClient idsClient = new IdsClient("https://localhost:8181") {
+			@Override
+			public Long getCachedSize(CacheRepository cacheRepository, String entityType, Long entityId) {
+				return null;
+			}
+
+			@Override
+			public Long getSize(CacheRepository cacheRepository, String sessionId, String entityType, Long entityId) {
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return entityId;
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(1);
+		try {
+			SizeProvider sizeProvider = new SizeProvider("LILS", "sessionId", idsClient);
+			assertThrows(InternalException.class,
+					() -> sizeProvider.getSizes(null, Set.of(Map.entry("dataset", 1L)), executor));
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+}
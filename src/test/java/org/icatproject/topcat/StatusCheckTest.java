@@ -185,6 +185,73 @@ public class StatusCheckTest {
 		}
 	}
 
+	@Test
+	@Transactional
+	public void testSimpleDownloadPreparedInBackground() throws Exception {
+		Long downloadId = null;
+		try {
+			String dummyUrl = "DummyUrl";
+			MockIdsClient mockIdsClient = new MockIdsClient(dummyUrl);
+			String transport = "http";
+
+			// Single-tier downloads are submitted as PREPARING, without a preparedId
+			Download dummyDownload = TestHelpers.createDummyDownload("DummyUserName", null, transport, false,
+					DownloadStatus.PREPARING, 0, false, downloadRepository);
+			downloadId = dummyDownload.getId();
+
+			int pollDelay = 0;
+			int pollIntervalWait = 0;
+
+			statusCheck.updateStatuses(pollDelay, pollIntervalWait, mockIdsClient);
+
+			// prepareData should have been called, and as the IDS is single-tier the
+			// Download is immediately COMPLETE
+			assertTrue(mockIdsClient.prepareDataWasCalled());
+
+			Download postDownload = TestHelpers.getDummyDownload(downloadId, downloadRepository);
+
+			assertEquals(DownloadStatus.COMPLETE, postDownload.getStatus());
+			assertEquals(mockIdsClient.preparedId, postDownload.getPreparedId());
+			assertNotNull(postDownload.getCompletedAt());
+		} finally {
+			// clean up
+			TestHelpers.deleteDummyDownload(downloadId, downloadRepository);
+		}
+	}
+
+	@Test
+	@Transactional
+	public void testSimpleGlobusDownloadPreparedInBackground() throws Exception {
+		Long downloadId = null;
+		try {
+			String dummyUrl = "DummyUrl";
+			MockIdsClient mockIdsClient = new MockIdsClient(dummyUrl);
+			String transport = "globus";
+
+			Download dummyDownload = TestHelpers.createDummyDownload("DummyUserName", null, transport, false,
+					DownloadStatus.PREPARING, 0, false, downloadRepository);
+			downloadId = dummyDownload.getId();
+
+			int pollDelay = 0;
+			int pollIntervalWait = 0;
+
+			statusCheck.updateStatuses(pollDelay, pollIntervalWait, mockIdsClient);
+
+			// Non-http transports are not polled once RESTORING, so a single-tier
+			// Download should be COMPLETE whatever its transport
+			assertTrue(mockIdsClient.prepareDataWasCalled());
+
+			Download postDownload = TestHelpers.getDummyDownload(downloadId, downloadRepository);
+
+			assertEquals(DownloadStatus.COMPLETE, postDownload.getStatus());
+			assertEquals(mockIdsClient.preparedId, postDownload.getPreparedId());
+			assertNotNull(postDownload.getCompletedAt());
+		} finally {
+			// clean up
+			TestHelpers.deleteDummyDownload(downloadId, downloadRepository);
+		}
+	}
+
 	@Test
 	@Transactional
 	public void testTwoTierDownload() throws Exception {
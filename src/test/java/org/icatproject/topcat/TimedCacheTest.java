@@ -0,0 +1,88 @@
+package org.icatproject.topcat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class TimedCacheTest {
+
+    class MockTimedCache<K, V> extends TimedCache<K, V> {
+        long now = 0L;
+
+        public MockTimedCache(int maxSize, long lifetimeSeconds) {
+            super(maxSize, lifetimeSeconds);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    @Test
+    public void testExpiry() {
+        MockTimedCache<String, String> cache = new MockTimedCache<>(10, 60);
+        cache.put("key", "value");
+        cache.now = 59999L;
+        assertEquals("value", cache.get("key"));
+        cache.now = 60000L;
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaxSize() {
+        MockTimedCache<String, String> cache = new MockTimedCache<>(2, 60);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        // Access "a" so that "b" becomes the least recently used entry
+        cache.get("a");
+        cache.put("c", "3");
+        assertEquals(2, cache.size());
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    @Test
+    public void testRemove() {
+        MockTimedCache<String, String> cache = new MockTimedCache<>(10, 60);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRemoveExpired() {
+        MockTimedCache<String, String> cache = new MockTimedCache<>(10, 60);
+        cache.put("a", "1");
+        cache.now = 30000L;
+        cache.put("b", "2");
+        cache.now = 60000L;
+        cache.removeExpired();
+        assertEquals(1, cache.size());
+        assertEquals("2", cache.get("b"));
+    }
+
+    @Test
+    public void testDisabled() {
+        TimedCache<String, String> cache = new TimedCache<>(10, 0);
+        assertFalse(cache.isEnabled());
+        cache.put("a", "1");
+        assertNull(cache.get("a"));
+
+        cache = new TimedCache<>(0, 60);
+        assertFalse(cache.isEnabled());
+        cache.put("a", "1");
+        assertNull(cache.get("a"));
+
+        assertTrue(new TimedCache<String, String>(1, 1).isEnabled());
+    }
+}
@@ -75,6 +75,9 @@ public class TransportMapTest {
         data = "sessionId=" + sessionId + "&entities=" + arrayBuilder.build();
         response = httpClient.post("entityManager", new HashMap<>(), data);
         try {
+            // Group membership is cached, so use fresh instances to see the new UserGroup
+            transportMap = new TransportMap();
+            icatClient.setSessionId(sessionId);
             assertTrue(transportMap.isAllowed("LILS", "lils", "root", icatClient));
         } finally {
 			arrayBuilder = Json.createArrayBuilder();
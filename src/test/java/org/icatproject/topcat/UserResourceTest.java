@@ -1,5 +1,6 @@
 package org.icatproject.topcat;
 
+import java.io.ByteArrayOutputStream;
 import java.net.MalformedURLException;
 import java.net.URLEncoder;
 import java.text.ParseException;
@@ -18,6 +19,7 @@ import jakarta.json.JsonNumber;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonObjectBuilder;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit5.container.annotation.ArquillianTest;
@@ -44,6 +46,7 @@ import org.icatproject.topcat.domain.Cart;
 import org.icatproject.topcat.domain.Download;
 import org.icatproject.topcat.domain.DownloadStatus;
 import org.icatproject.topcat.domain.DownloadType;
+import org.icatproject.topcat.domain.EntityType;
 import org.icatproject.topcat.exceptions.BadRequestException;
 import org.icatproject.topcat.exceptions.ForbiddenException;
 import org.icatproject.topcat.exceptions.NotFoundException;
@@ -52,6 +55,7 @@ import org.icatproject.topcat.repository.CacheRepository;
 import org.icatproject.topcat.repository.CartRepository;
 import org.icatproject.topcat.repository.DownloadRepository;
 import org.icatproject.topcat.repository.DownloadTypeRepository;
+import org.icatproject.topcat.web.rest.DownloadPage;
 import org.icatproject.topcat.web.rest.UserResource;
 
 @ArquillianTest
@@ -65,7 +69,7 @@ public class UserResourceTest {
 	@Deployment
 	public static JavaArchive createDeployment() {
 		return ShrinkWrap.create(JavaArchive.class)
-				.addClasses(UserResource.class, CacheRepository.class, DownloadRepository.class,
+				.addClasses(UserResource.class, CacheRepository.class, DownloadRepository.class, DownloadPage.class,
 						DownloadTypeRepository.class, CartRepository.class)
 				.addPackages(true, "org.icatproject.topcat.domain", "org.icatproject.topcat.exceptions")
 				.addAsResource("META-INF/persistence.xml")
@@ -148,6 +152,29 @@ public class UserResourceTest {
 		assertTrue(Long.parseLong(response.getEntity().toString()) > (long) 0);
 	}
 
+	@Test
+	public void testGetSizes() throws Exception {
+		String facilityName = "LILS";
+		IcatClient icatClient = new IcatClient("https://localhost:8181", sessionId);
+		long investigationId = icatClient.getEntity("investigation").getInt("id");
+		long datasetId = icatClient.getEntity("dataset").getInt("id");
+		String entities = "investigation " + investigationId + ", dataset " + datasetId + ", dataset " + datasetId;
+
+		Response response = userResource.getSizes(facilityName, sessionId, entities);
+
+		JsonArray sizes = (JsonArray) response.getEntity();
+		assertEquals(2, sizes.size());
+		JsonObject investigationSize = sizes.getJsonObject(0);
+		assertEquals("investigation", investigationSize.getString("entityType"));
+		assertEquals(investigationId, investigationSize.getJsonNumber("entityId").longValueExact());
+		long expectedSize = Long.parseLong(userResource.getSize(facilityName, sessionId, "investigation", investigationId).getEntity().toString());
+		assertEquals(expectedSize, investigationSize.getJsonNumber("size").longValueExact());
+		assertEquals("dataset", sizes.getJsonObject(1).getString("entityType"));
+		assertTrue(sizes.getJsonObject(1).getJsonNumber("size").longValueExact() > 0L);
+
+		assertThrows(BadRequestException.class, () -> userResource.getSizes(facilityName, sessionId, "instrument 1"));
+	}
+
 	@Test
 	public void testCart() throws Exception {
 		String facilityName = "LILS";
@@ -183,6 +210,13 @@ public class UserResourceTest {
 		assertEquals(200, response.getStatus());
 		assertEquals(1, getCartSize(response));
 
+		// Totals are maintained from the values ICAT returned when the item was added
+		Cart cart = (Cart) response.getEntity();
+		Long fileSize = dataset.containsKey("fileSize") ? dataset.getJsonNumber("fileSize").longValue() : null;
+		Long fileCount = dataset.containsKey("fileCount") ? dataset.getJsonNumber("fileCount").longValue() : null;
+		assertEquals(fileSize, cart.getTotalSize());
+		assertEquals(fileCount, cart.getTotalCount());
+
 		// Now we need to remove the cart item again;
 		// Again, this ought to be done directly, rather than using the methods we
 		// should be testing independently!
@@ -192,6 +226,151 @@ public class UserResourceTest {
 		assertEquals(0, getCartSize(response));
 	}
 
+	@Test
+	public void testDeleteCartItemsById() throws Exception {
+		String facilityName = "LILS";
+		IcatClient icatClient = new IcatClient("https://localhost:8181", sessionId);
+		List<JsonObject> datasets = icatClient.getEntities("dataset", 2L);
+		String items = "dataset " + datasets.get(0).getJsonNumber("id") + ", dataset " + datasets.get(1).getJsonNumber("id");
+
+		Response response = userResource.deleteCartItems(facilityName, sessionId, "*");
+		assertEquals(200, response.getStatus());
+		try {
+			response = userResource.addCartItems(facilityName, sessionId, items, false);
+			assertEquals(200, response.getStatus());
+			Cart cart = (Cart) response.getEntity();
+			assertEquals(2, cart.getCartItems().size());
+			Long cartItemId = cart.getCartItems().get(0).getId();
+
+			response = userResource.deleteCartItems(facilityName, sessionId, cartItemId.toString());
+			assertEquals(200, response.getStatus());
+			cart = (Cart) response.getEntity();
+			assertEquals(1, cart.getCartItems().size());
+			assertNotEquals(cartItemId, cart.getCartItems().get(0).getId());
+		} finally {
+			userResource.deleteCartItems(facilityName, sessionId, "*");
+		}
+	}
+
+	@Test
+	public void testGetCartItemsPaginated() throws Exception {
+		String facilityName = "LILS";
+		IcatClient icatClient = new IcatClient("https://localhost:8181", sessionId);
+		List<JsonObject> datasets = icatClient.getEntities("dataset", 2L);
+		String items = "dataset " + datasets.get(0).getJsonNumber("id") + ", dataset " + datasets.get(1).getJsonNumber("id");
+
+		Response response = userResource.deleteCartItems(facilityName, sessionId, "*");
+		assertEquals(200, response.getStatus());
+		try {
+			response = userResource.getCartSummary(facilityName, sessionId);
+			JsonObject summary = Utils.parseJsonObject(response.getEntity().toString());
+			assertEquals(0, summary.getInt("cartItemCount"));
+
+			userResource.addCartItems(facilityName, sessionId, items, false);
+			response = userResource.getCartSummary(facilityName, sessionId);
+			assertEquals(200, response.getStatus());
+			summary = Utils.parseJsonObject(response.getEntity().toString());
+			assertEquals(2, summary.getInt("cartItemCount"));
+			assertEquals("simple/root", summary.getString("userName"));
+
+			JsonObject page = readStreamedResponse(userResource.getCartItems(facilityName, sessionId, 0L, 1));
+			assertEquals(1, page.getJsonArray("cartItems").size());
+			long nextAfterId = page.getJsonNumber("nextAfterId").longValue();
+			assertEquals(nextAfterId, page.getJsonArray("cartItems").getJsonObject(0).getJsonNumber("id").longValue());
+
+			page = readStreamedResponse(userResource.getCartItems(facilityName, sessionId, nextAfterId, 1));
+			assertEquals(1, page.getJsonArray("cartItems").size());
+			nextAfterId = page.getJsonNumber("nextAfterId").longValue();
+
+			page = readStreamedResponse(userResource.getCartItems(facilityName, sessionId, nextAfterId, 1));
+			assertEquals(0, page.getJsonArray("cartItems").size());
+			assertTrue(page.isNull("nextAfterId"));
+
+			assertThrows(BadRequestException.class, () -> userResource.getCartItems(facilityName, sessionId, 0L, 0));
+		} finally {
+			userResource.deleteCartItems(facilityName, sessionId, "*");
+		}
+	}
+
+	@Test
+	public void testGetCartChanges() throws Exception {
+		String facilityName = "LILS";
+		IcatClient icatClient = new IcatClient("https://localhost:8181", sessionId);
+		List<JsonObject> datasets = icatClient.getEntities("dataset", 2L);
+		long firstId = datasets.get(0).getJsonNumber("id").longValue();
+		long secondId = datasets.get(1).getJsonNumber("id").longValue();
+
+		Response response = userResource.deleteCartItems(facilityName, sessionId, "*");
+		assertEquals(200, response.getStatus());
+		try {
+			JsonObject changes = readStreamedResponse(userResource.getCartChanges(facilityName, sessionId, 0L, null));
+			assertTrue(changes.isNull("cartId"));
+			assertEquals(0, changes.getInt("version"));
+			assertFalse(changes.getBoolean("reset"));
+
+			Cart cart = (Cart) userResource.addCartItems(facilityName, sessionId, "dataset " + firstId, false).getEntity();
+			long cartId = cart.getId();
+			long version = cart.getVersion();
+			long firstCartItemId = cart.getCartItems().get(0).getId();
+			userResource.addCartItems(facilityName, sessionId, "dataset " + secondId, false);
+
+			// Only the second dataset has been added since the first version
+			changes = readStreamedResponse(userResource.getCartChanges(facilityName, sessionId, version, cartId));
+			assertFalse(changes.getBoolean("reset"));
+			assertEquals(version + 1, changes.getJsonNumber("version").longValue());
+			assertEquals(1, changes.getJsonArray("added").size());
+			assertEquals(secondId, changes.getJsonArray("added").getJsonObject(0).getJsonNumber("entityId").longValue());
+			assertEquals(0, changes.getJsonArray("removed").size());
+
+			version = changes.getJsonNumber("version").longValue();
+			userResource.deleteCartItems(facilityName, sessionId, "dataset " + firstId);
+			changes = readStreamedResponse(userResource.getCartChanges(facilityName, sessionId, version, cartId));
+			assertEquals(0, changes.getJsonArray("added").size());
+			assertEquals(1, changes.getJsonArray("removed").size());
+			assertEquals(firstCartItemId, changes.getJsonArray("removed").getJsonNumber(0).longValue());
+
+			// Versions the client cannot hold, or of another cart, require a full fetch
+			changes = readStreamedResponse(userResource.getCartChanges(facilityName, sessionId, version + 10, cartId));
+			assertTrue(changes.getBoolean("reset"));
+			changes = readStreamedResponse(userResource.getCartChanges(facilityName, sessionId, 0L, cartId + 1));
+			assertTrue(changes.getBoolean("reset"));
+		} finally {
+			userResource.deleteCartItems(facilityName, sessionId, "*");
+		}
+	}
+
+	@Test
+	public void testAddCartItemsRemovesChildren() throws Exception {
+		String facilityName = "LILS";
+		IcatClient icatClient = new IcatClient("https://localhost:8181", sessionId);
+		long datafileId = icatClient.getEntity("datafile").getJsonNumber("id").longValue();
+		JsonObject datafile = icatClient.getEntities("datafile", List.of(datafileId)).get(0);
+		long datasetId = datafile.getJsonObject("dataset").getJsonNumber("id").longValue();
+
+		Response response = userResource.deleteCartItems(facilityName, sessionId, "*");
+		assertEquals(200, response.getStatus());
+		try {
+			response = userResource.addCartItems(facilityName, sessionId, "datafile " + datafileId, false);
+			assertEquals(200, response.getStatus());
+			assertEquals(1, getCartSize(response));
+
+			// Adding the parent dataset replaces the datafile
+			response = userResource.addCartItems(facilityName, sessionId, "dataset " + datasetId, false);
+			assertEquals(200, response.getStatus());
+			Cart cart = (Cart) response.getEntity();
+			assertEquals(1, cart.getCartItems().size());
+			assertEquals(EntityType.dataset, cart.getCartItems().get(0).getEntityType());
+			assertEquals(datasetId, cart.getCartItems().get(0).getEntityId());
+
+			// Adding a child of an item already in the cart has no effect
+			response = userResource.addCartItems(facilityName, sessionId, "datafile " + datafileId, false);
+			assertEquals(200, response.getStatus());
+			assertEquals(1, getCartSize(response));
+		} finally {
+			userResource.deleteCartItems(facilityName, sessionId, "*");
+		}
+	}
+
 	@Test
 	public void testSubmitCart() throws Exception {
 		String facilityName = "LILS";
@@ -904,6 +1083,62 @@ public class UserResourceTest {
 			downloadIds.add(download2.getId());
 			Response response = userResource.getDownloadStatuses("LILS", sessionId, downloadIds);
 			assertEquals(Arrays.asList(DownloadStatus.COMPLETE, DownloadStatus.RESTORING), response.getEntity());
+
+			// Statuses are returned in the order the ids were requested
+			response = userResource.getDownloadStatuses("LILS", sessionId,
+					Arrays.asList(download2.getId(), download1.getId()));
+			assertEquals(Arrays.asList(DownloadStatus.RESTORING, DownloadStatus.COMPLETE), response.getEntity());
+		} finally {
+			downloadIds.forEach(downloadId -> {
+				TestHelpers.deleteDummyDownload(downloadId, downloadRepository);
+			});
+		}
+	}
+
+	@Test
+	public void testGetDownloadsPage() throws Exception {
+		List<Long> downloadIds = new ArrayList<>();
+		try {
+			for (int i = 0; i < 3; i++) {
+				Download download = TestHelpers.createDummyDownload("simple/root", "testGetDownloadsPage", "http", true,
+						DownloadStatus.COMPLETE, 0, false, downloadRepository);
+				downloadIds.add(download.getId());
+			}
+			String queryOffset = "where download.preparedId = 'testGetDownloadsPage'";
+
+			JsonObject count = Utils.parseJsonObject(
+					(String) userResource.getDownloadsCount("LILS", sessionId, queryOffset).getEntity());
+			assertEquals(3, count.getJsonNumber("count").longValue());
+
+			// Newest first, so the last created Download is on the first page
+			JsonObject page = readStreamedResponse(
+					userResource.getDownloadsPage("LILS", sessionId, queryOffset, null, 2, "count"));
+			JsonArray downloads = page.getJsonArray("downloads");
+			assertEquals(2, downloads.size());
+			assertEquals((long) downloadIds.get(2), downloads.getJsonObject(0).getJsonNumber("id").longValue());
+			assertEquals((long) downloadIds.get(1), downloads.getJsonObject(1).getJsonNumber("id").longValue());
+			assertEquals(0, downloads.getJsonObject(0).getInt("itemCount"));
+			assertEquals("simple/root", downloads.getJsonObject(0).getString("userName"));
+			long nextAfterId = page.getJsonNumber("nextAfterId").longValue();
+			assertEquals((long) downloadIds.get(1), nextAfterId);
+
+			page = readStreamedResponse(
+					userResource.getDownloadsPage("LILS", sessionId, queryOffset, nextAfterId, 2, "none"));
+			downloads = page.getJsonArray("downloads");
+			assertEquals(1, downloads.size());
+			assertEquals((long) downloadIds.get(0), downloads.getJsonObject(0).getJsonNumber("id").longValue());
+			assertFalse(downloads.getJsonObject(0).containsKey("downloadItems"));
+			assertFalse(downloads.getJsonObject(0).containsKey("itemCount"));
+			assertTrue(page.isNull("nextAfterId"));
+
+			page = readStreamedResponse(userResource.getDownloadsPage("LILS", sessionId, queryOffset, null, null, null));
+			assertEquals(3, page.getJsonArray("downloads").size());
+			assertEquals(0, page.getJsonArray("downloads").getJsonObject(0).getJsonArray("downloadItems").size());
+
+			assertThrows(BadRequestException.class,
+					() -> userResource.getDownloadsPage("LILS", sessionId, queryOffset, null, 0, null));
+			assertThrows(BadRequestException.class,
+					() -> userResource.getDownloadsPage("LILS", sessionId, queryOffset, null, null, "some"));
 		} finally {
 			downloadIds.forEach(downloadId -> {
 				TestHelpers.deleteDummyDownload(downloadId, downloadRepository);
@@ -943,6 +1178,13 @@ public class UserResourceTest {
 			() -> userResource.submitCart(facilityName, sessionId, transport, email, fileName, zipType));
 	}
 
+	private JsonObject readStreamedResponse(Response response) throws Exception {
+		assertEquals(200, response.getStatus());
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		((StreamingOutput) response.getEntity()).write(outputStream);
+		return Utils.parseJsonObject(outputStream.toString("UTF-8"));
+	}
+
 	private int getCartSize(Response response) throws Exception {
 		// Trying to write these tests has revealed that UserResource.getSize() is
 		// inconsistent!